@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.handler;
+
+import static org.openhab.binding.espmilighthub.EspMilightHubBindingConstants.*;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.smarthome.config.core.Configuration;
+import org.eclipse.smarthome.core.thing.Bridge;
+import org.eclipse.smarthome.core.thing.Thing;
+import org.eclipse.smarthome.core.thing.ThingTypeUID;
+import org.eclipse.smarthome.core.thing.ThingUID;
+import org.eclipse.smarthome.core.thing.binding.builder.BridgeBuilder;
+import org.eclipse.smarthome.core.thing.binding.builder.ThingBuilder;
+
+/**
+ * The {@link BenchmarkBridge} builds a bridge handler with the default settings that talks to a
+ * {@link FakeMqttClient}, and adds globes to it the same way the framework does.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+public class BenchmarkBridge {
+    public final Bridge bridge;
+    public final EspMilightHubBridgeHandler bridgeHandler;
+    public final StubThingHandlerCallback callback;
+    public final FakeMqttClient client;
+
+    public BenchmarkBridge() throws Exception {
+        Map<String, Object> settings = new HashMap<String, Object>();
+        settings.put(CONFIG_MQTT_ADDRESS, "tcp://localhost:1883");
+        settings.put(CONFIG_DEFAULT_COMMAND, "next_mode");
+        settings.put(CONFIG_TRIGGER_WHITE_HUE, new BigDecimal(36));
+        settings.put(CONFIG_TRIGGER_WHITE_SAT, new BigDecimal(32));
+        settings.put(CONFIG_FAVOURITE_WHITE, new BigDecimal(200));
+        // No pacing so the sender keeps up and the queue never overflows while measuring.
+        settings.put(CONFIG_DELAY_BETWEEN_MQTT, new BigDecimal(0));
+        settings.put(CONFIG_DELAY_BETWEEN_SAME_GLOBE, new BigDecimal(0));
+        settings.put(CONFIG_1TRIGGERS_NIGHT_MODE, Boolean.FALSE);
+        settings.put(CONFIG_POWERFAILS_TO_MINDIM, Boolean.FALSE);
+        settings.put(CONFIG_LEVEL_FOLLOWS_COLOUR, Boolean.FALSE);
+        settings.put(CONFIG_RGBW_WHITEMODE_SAT_THRESHOLD, new BigDecimal(12));
+        settings.put(CONFIG_QUEUE_CAPACITY, new BigDecimal(4096));
+        bridge = BridgeBuilder.create(THING_TYPE_BRIDGE, "benchmark").withConfiguration(new Configuration(settings))
+                .withLabel("Benchmark bridge").build();
+        bridgeHandler = new EspMilightHubBridgeHandler(bridge);
+        bridge.setHandler(bridgeHandler);
+        callback = new StubThingHandlerCallback(bridge);
+        bridgeHandler.setCallback(callback);
+        client = new FakeMqttClient();
+        Field clientField = EspMilightHubBridgeHandler.class.getDeclaredField("client");
+        clientField.setAccessible(true);
+        clientField.set(bridgeHandler, client);
+        client.setCallback(bridgeHandler);
+        bridgeHandler.initialize();
+        bridgeHandler.connectComplete(false, "tcp://localhost:1883");
+    }
+
+    /**
+     * @param globeLocation the thing ID, eg 0xAB14 for group 4 of remote 0xAB1.
+     */
+    public EspMilightHubHandler addGlobe(ThingTypeUID thingTypeUID, String globeLocation) {
+        Thing globe = ThingBuilder.create(thingTypeUID, new ThingUID(thingTypeUID, bridge.getUID(), globeLocation))
+                .withBridge(bridge.getUID()).withLabel("Benchmark globe " + globeLocation).build();
+        EspMilightHubHandler globeHandler = new EspMilightHubHandler(globe);
+        globe.setHandler(globeHandler);
+        globeHandler.setCallback(callback);
+        globeHandler.initialize();
+        bridgeHandler.childHandlerInitialized(globeHandler, globe);
+        return globeHandler;
+    }
+
+    public void dispose() {
+        bridgeHandler.dispose();
+    }
+}
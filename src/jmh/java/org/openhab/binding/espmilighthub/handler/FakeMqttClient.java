@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.handler;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttToken;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+/**
+ * The {@link FakeMqttClient} never connects to a broker, it reports being connected, acknowledges every message
+ * straight away and counts what is published so the benchmarks measure the binding and not the network.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+public class FakeMqttClient extends MqttAsyncClient {
+    public final LongAdder published = new LongAdder();
+    public final LongAdder publishedBytes = new LongAdder();
+    private volatile MqttCallback callback;
+
+    public FakeMqttClient() throws MqttException {
+        super("tcp://localhost:1883", "espMilightHub:benchmark", new MemoryPersistence());
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public void setCallback(MqttCallback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public IMqttDeliveryToken publish(String topic, byte[] payload, int qos, boolean retained, Object userContext,
+            IMqttActionListener callback) {
+        published.increment();
+        publishedBytes.add(payload.length);
+        MqttDeliveryToken token = new MqttDeliveryToken("benchmark");
+        token.setUserContext(userContext);
+        MqttCallback current = this.callback;
+        if (current != null) {
+            current.deliveryComplete(token);
+        }
+        return token;
+    }
+
+    @Override
+    public IMqttToken subscribe(String topicFilter, int qos) {
+        return new MqttToken("benchmark");
+    }
+
+    @Override
+    public IMqttToken disconnect() {
+        return new MqttToken("benchmark");
+    }
+}
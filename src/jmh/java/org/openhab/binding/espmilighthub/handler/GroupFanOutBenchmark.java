@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.handler;
+
+import static org.openhab.binding.espmilighthub.EspMilightHubBindingConstants.THING_TYPE_FUT089;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.espmilighthub.internal.IncomingState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link GroupFanOutBenchmark} measures a group 0 state from a fut089 remote being applied to the globes that
+ * have a thing. The level changes every time so the channel updates are not skipped as repeats.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GroupFanOutBenchmark {
+    private static final String GROUP_0_TOPIC = "milight/states/0xAB1/fut089/0";
+    private static final String GROUP_1_TOPIC = "milight/states/0xAB1/fut089/1";
+    private static final String UNKNOWN_TOPIC = "milight/states/0x999/fut089/0";
+
+    @Param({ "1", "4", "8" })
+    public int globes;
+
+    private BenchmarkBridge fixture;
+    private byte[][] payloads;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new BenchmarkBridge();
+        for (int group = 1; group <= globes; group++) {
+            fixture.addGlobe(THING_TYPE_FUT089, "0xAB1" + group);
+        }
+        payloads = new byte[][] {
+                "{\"state\":\"ON\",\"level\":40,\"hue\":120,\"saturation\":90,\"bulb_mode\":\"color\"}"
+                        .getBytes(StandardCharsets.UTF_8),
+                "{\"state\":\"ON\",\"level\":60,\"hue\":240,\"saturation\":80,\"bulb_mode\":\"color\"}"
+                        .getBytes(StandardCharsets.UTF_8) };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.dispose();
+    }
+
+    private byte[] nextPayload() {
+        next ^= 1;
+        return payloads[next];
+    }
+
+    @Benchmark
+    public void groupZero() {
+        fixture.bridgeHandler.processIncomingMessage(new IncomingState(GROUP_0_TOPIC, nextPayload()));
+    }
+
+    @Benchmark
+    public void singleGroup() {
+        fixture.bridgeHandler.processIncomingMessage(new IncomingState(GROUP_1_TOPIC, nextPayload()));
+    }
+
+    @Benchmark
+    public void remoteWithoutThings() {
+        fixture.bridgeHandler.processIncomingMessage(new IncomingState(UNKNOWN_TOPIC, nextPayload()));
+    }
+
+    @Benchmark
+    public void repeatedState() {
+        fixture.bridgeHandler.processIncomingMessage(new IncomingState(GROUP_0_TOPIC, payloads[0]));
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.handler;
+
+import static org.openhab.binding.espmilighthub.EspMilightHubBindingConstants.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.smarthome.core.library.types.HSBType;
+import org.eclipse.smarthome.core.library.types.PercentType;
+import org.eclipse.smarthome.core.thing.ChannelUID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link HandleCommandBenchmark} measures a globe handling a command from openHAB up to the point it is queued on
+ * the bridge.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HandleCommandBenchmark {
+    private BenchmarkBridge fixture;
+    private EspMilightHubHandler globe;
+    private ChannelUID levelChannel;
+    private ChannelUID colourChannel;
+    private ChannelUID colourTemperatureChannel;
+    private PercentType[] levels;
+    private HSBType[] colours;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new BenchmarkBridge();
+        globe = fixture.addGlobe(THING_TYPE_RGB_CCT, "0xCAFE1");
+        levelChannel = new ChannelUID(globe.getThing().getUID(), CHANNEL_LEVEL);
+        colourChannel = new ChannelUID(globe.getThing().getUID(), CHANNEL_COLOUR);
+        colourTemperatureChannel = new ChannelUID(globe.getThing().getUID(), CHANNEL_COLOURTEMP);
+        levels = new PercentType[100];
+        colours = new HSBType[100];
+        for (int i = 0; i < 100; i++) {
+            levels[i] = new PercentType(i + 1);
+            colours[i] = new HSBType((i * 3) + "," + (50 + i / 2) + "," + (i + 1));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.dispose();
+    }
+
+    private int nextIndex() {
+        next = (next + 1) % 100;
+        return next;
+    }
+
+    @Benchmark
+    public void level() {
+        globe.handleCommand(levelChannel, levels[nextIndex()]);
+    }
+
+    @Benchmark
+    public void colour() {
+        globe.handleCommand(colourChannel, colours[nextIndex()]);
+    }
+
+    @Benchmark
+    public void colourTemperature() {
+        globe.handleCommand(colourTemperatureChannel, levels[nextIndex()]);
+    }
+}
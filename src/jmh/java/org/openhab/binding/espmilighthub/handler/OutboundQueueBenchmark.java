@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.handler;
+
+import static org.openhab.binding.espmilighthub.internal.CommandCoalescer.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link OutboundQueueBenchmark} measures queueing commands on the bridge from several threads at once, the way
+ * rules and the UI do, while the sender drains them into a {@link FakeMqttClient}. Each thread works on its own globe
+ * so state changes coalesce, the barrier commands never do.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class OutboundQueueBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        BenchmarkBridge fixture;
+        final AtomicInteger nextGlobe = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            fixture = new BenchmarkBridge();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            fixture.dispose();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        String topic;
+        int level;
+
+        @Setup(Level.Trial)
+        public void setup(Shared shared) {
+            topic = "milight/commands/0xBEEF/rgb_cct/" + (1 + shared.nextGlobe.getAndIncrement() % 4);
+        }
+    }
+
+    @Benchmark
+    public void queueStateChange(Shared shared, Producer producer) {
+        producer.level = (producer.level + 1) % 101;
+        shared.fixture.bridgeHandler.queueStateToSendMQTT(producer.topic, STATE_ON, producer.level, UNSET, UNSET,
+                UNSET);
+    }
+
+    @Benchmark
+    public void queueBarrierCommand(Shared shared, Producer producer) {
+        shared.fixture.bridgeHandler.queueToSendMQTT(producer.topic, "{\"command\":\"next_mode\"}");
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.openhab.binding.espmilighthub.internal.CommandCoalescer.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link CommandEncodingBenchmark} measures turning a state change into the JSON payload the hub is sent.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandEncodingBenchmark {
+    private static final String TOPIC = "milight/commands/0xCAFE/rgb_cct/1";
+
+    private final CommandCoalescer coalescer = new CommandCoalescer();
+    private int level;
+
+    private byte[] encode(int state, int hue, int saturation, int colourTemp) {
+        level = (level + 1) % 101;
+        OutgoingCommand command = coalescer.coalesce(TOPIC, state, level, hue, saturation, colourTemp);
+        // Taking the payload seals the state, so every call makes a new command.
+        return command == null ? new byte[0] : command.takePayload();
+    }
+
+    @Benchmark
+    public byte[] colour() {
+        return encode(STATE_ON, 240, 100, UNSET);
+    }
+
+    @Benchmark
+    public byte[] white() {
+        return encode(STATE_ON, UNSET, UNSET, 250);
+    }
+
+    @Benchmark
+    public byte[] levelOnly() {
+        return encode(UNSET, UNSET, UNSET, UNSET);
+    }
+
+    @Benchmark
+    public byte[] off() {
+        return encode(STATE_OFF, UNSET, UNSET, UNSET);
+    }
+
+    @Benchmark
+    public byte[] encoderOnly() {
+        level = (level + 1) % 101;
+        return CommandEncoder.encodeState(STATE_ON, level, 240, 100, UNSET);
+    }
+
+    @Benchmark
+    public byte[] mode() {
+        level = (level + 1) % 101;
+        return CommandEncoder.encodeMode(level % 9);
+    }
+}
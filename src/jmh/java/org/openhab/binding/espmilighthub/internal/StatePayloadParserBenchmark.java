@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link StatePayloadParserBenchmark} measures reading the states the hub publishes.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StatePayloadParserBenchmark {
+
+    @Param({ "colour", "white", "scene", "full" })
+    public String payloadType;
+
+    private byte[] payload;
+    private final MilightState state = new MilightState();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String json;
+        switch (payloadType) {
+            case "colour":
+                json = "{\"state\":\"ON\",\"level\":54,\"hue\":240,\"saturation\":100,\"bulb_mode\":\"color\"}";
+                break;
+            case "white":
+                json = "{\"state\":\"ON\",\"level\":100,\"color_temp\":250,\"bulb_mode\":\"white\"}";
+                break;
+            case "scene":
+                json = "{\"state\":\"ON\",\"level\":70,\"mode\":6,\"bulb_mode\":\"scene\"}";
+                break;
+            default:
+                // Everything the hub can be asked to send, including fields the binding skips.
+                json = "{\"state\":\"ON\",\"status\":\"ON\",\"brightness\":137,\"level\":54,\"hue\":240,"
+                        + "\"saturation\":100,\"color\":{\"r\":0,\"g\":0,\"b\":255},\"mode\":6,\"effect\":\"6\","
+                        + "\"color_temp\":250,\"bulb_mode\":\"color\",\"device_id\":43981,\"group_id\":1,"
+                        + "\"device_type\":\"rgb_cct\"}";
+                break;
+        }
+        payload = json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public MilightState parse() {
+        StatePayloadParser.parse(payload, state);
+        return state;
+    }
+}
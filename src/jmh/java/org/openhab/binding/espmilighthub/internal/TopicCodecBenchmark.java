@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link TopicCodecBenchmark} measures turning state topics into keys. The same few topics hit the cache, while
+ * cycling through more topics than the cache holds measures a full parse.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TopicCodecBenchmark {
+    private static final int FEW_TOPICS = 8;
+    private static final int MANY_TOPICS = 4096;
+
+    private String[] topics;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        topics = new String[MANY_TOPICS];
+        for (int i = 0; i < MANY_TOPICS; i++) {
+            topics[i] = TopicCodec.STATES_PREFIX + "0x" + Integer.toHexString(0x1000 + i / 8).toUpperCase()
+                    + "/rgb_cct/" + (i % 8 + 1);
+        }
+    }
+
+    @Benchmark
+    public GlobeKey cachedTopic() {
+        next = (next + 1) % FEW_TOPICS;
+        return TopicCodec.parseStateTopic(topics[next]);
+    }
+
+    @Benchmark
+    public GlobeKey uncachedTopic() {
+        next = (next + 1) % MANY_TOPICS;
+        return TopicCodec.parseStateTopic(topics[next]);
+    }
+}
@@ -53,6 +53,24 @@ public class EspMilightHubBindingConstants {
     public static final String CONFIG_RGBW_WHITEMODE_SAT_THRESHOLD = "RGBW_WHITEMODE_SAT_THRESHOLD";
     public static final String CONFIG_POWERFAILS_TO_MINDIM = "POWERFAILS_TO_MINDIM";
     public static final String CONFIG_LEVEL_FOLLOWS_COLOUR = "LEVEL_FOLLOWS_COLOUR";
+    public static final String CONFIG_QUEUE_CAPACITY = "QUEUE_CAPACITY";
+    public static final String CONFIG_QUEUE_OVERFLOW_POLICY = "QUEUE_OVERFLOW_POLICY";
+    public static final String CONFIG_INBOUND_QUEUE_CAPACITY = "INBOUND_QUEUE_CAPACITY";
+    public static final String CONFIG_INBOUND_MAX_BATCH = "INBOUND_MAX_BATCH";
+    public static final String CONFIG_INBOUND_WORKERS = "INBOUND_WORKERS";
+    public static final String CONFIG_INFLIGHT_WINDOW = "INFLIGHT_WINDOW";
+    public static final String CONFIG_METRICS_INTERVAL = "METRICS_INTERVAL";
+    public static final String CONFIG_ECHO_TIMEOUT = "ECHO_TIMEOUT";
+    public static final String CONFIG_ADAPTIVE_PACING = "ADAPTIVE_PACING";
+    public static final String CONFIG_ADAPTIVE_MIN_DELAY = "ADAPTIVE_MIN_DELAY";
+    public static final String CONFIG_ADAPTIVE_MAX_DELAY = "ADAPTIVE_MAX_DELAY";
+    public static final String CONFIG_DEBOUNCE_WINDOW = "DEBOUNCE_WINDOW";
+    public static final String CONFIG_DEBOUNCE_MAX_HOLD = "DEBOUNCE_MAX_HOLD";
+    public static final String CONFIG_PERSIST_QUEUE = "PERSIST_QUEUE";
+    public static final String CONFIG_PERSIST_QUEUE_SIZE = "PERSIST_QUEUE_SIZE";
+    public static final String CONFIG_PERSIST_QUEUE_TTL = "PERSIST_QUEUE_TTL";
+    public static final String CONFIG_STATE_SNAPSHOT = "STATE_SNAPSHOT";
+    public static final String CONFIG_SUBSCRIBE_THINGS_ONLY = "SUBSCRIBE_THINGS_ONLY";
 
     // Globe channels
     public static final String CHANNEL_LEVEL = "level";
@@ -62,4 +80,23 @@ public class EspMilightHubBindingConstants {
     public static final String CHANNEL_BULB_MODE = "bulbmode";
     public static final String CHANNEL_COMMAND = "bulbcommand";
     public static final String CHANNEL_SEND_COMMAND = "sendbulbcommand";
+
+    // Bridge channels
+    public static final String CHANNEL_OUT_QUEUE_DEPTH = "outqueuedepth";
+    public static final String CHANNEL_OUT_LATENCY_P50 = "outlatencyp50";
+    public static final String CHANNEL_OUT_LATENCY_P95 = "outlatencyp95";
+    public static final String CHANNEL_OUT_LATENCY_P99 = "outlatencyp99";
+    public static final String CHANNEL_OUT_RATE = "outrate";
+    public static final String CHANNEL_COALESCED_COUNT = "coalescedcount";
+    public static final String CHANNEL_DEBOUNCED_COUNT = "debouncedcount";
+    public static final String CHANNEL_DROPPED_COUNT = "droppedcount";
+    public static final String CHANNEL_IN_QUEUE_DEPTH = "inqueuedepth";
+    public static final String CHANNEL_IN_COLLAPSED_COUNT = "incollapsedcount";
+    public static final String CHANNEL_IN_PROCESSING_P50 = "inprocessingp50";
+    public static final String CHANNEL_IN_PROCESSING_P99 = "inprocessingp99";
+    public static final String CHANNEL_IN_RATE = "inrate";
+    public static final String CHANNEL_ECHO_LATENCY_P50 = "echolatencyp50";
+    public static final String CHANNEL_ECHO_LATENCY_P99 = "echolatencyp99";
+    public static final String CHANNEL_MISSED_ECHOES = "missedechoes";
+    public static final String CHANNEL_PACING_DELAY = "pacingdelay";
 }
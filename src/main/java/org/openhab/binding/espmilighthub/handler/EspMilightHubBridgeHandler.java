@@ -15,29 +15,40 @@ package org.openhab.binding.espmilighthub.handler;
 
 import static org.openhab.binding.espmilighthub.EspMilightHubBindingConstants.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
-import java.util.NoSuchElementException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.IOUtils;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
-import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.eclipse.smarthome.config.core.ConfigConstants;
 import org.eclipse.smarthome.config.core.Configuration;
 import org.eclipse.smarthome.core.library.types.DecimalType;
 import org.eclipse.smarthome.core.library.types.HSBType;
@@ -46,12 +57,41 @@ import org.eclipse.smarthome.core.library.types.PercentType;
 import org.eclipse.smarthome.core.library.types.StringType;
 import org.eclipse.smarthome.core.thing.Bridge;
 import org.eclipse.smarthome.core.thing.ChannelUID;
+import org.eclipse.smarthome.core.thing.Thing;
 import org.eclipse.smarthome.core.thing.ThingStatus;
 import org.eclipse.smarthome.core.thing.ThingStatusDetail;
 import org.eclipse.smarthome.core.thing.ThingTypeUID;
 import org.eclipse.smarthome.core.thing.ThingUID;
 import org.eclipse.smarthome.core.thing.binding.BaseBridgeHandler;
+import org.eclipse.smarthome.core.thing.binding.ThingHandler;
 import org.eclipse.smarthome.core.types.Command;
+import org.eclipse.smarthome.core.types.State;
+import org.eclipse.smarthome.core.types.UnDefType;
+import org.openhab.binding.espmilighthub.internal.AdaptivePacer;
+import org.openhab.binding.espmilighthub.internal.CommandCoalescer;
+import org.openhab.binding.espmilighthub.internal.CommandDebouncer;
+import org.openhab.binding.espmilighthub.internal.CommandEncoder;
+import org.openhab.binding.espmilighthub.internal.CommandPriority;
+import org.openhab.binding.espmilighthub.internal.CommandRingBuffer;
+import org.openhab.binding.espmilighthub.internal.CommandRingBuffer.DropListener;
+import org.openhab.binding.espmilighthub.internal.CommandRingBuffer.OverflowPolicy;
+import org.openhab.binding.espmilighthub.internal.CommandSender;
+import org.openhab.binding.espmilighthub.internal.EchoTracker;
+import org.openhab.binding.espmilighthub.internal.EspMilightHubConfiguration;
+import org.openhab.binding.espmilighthub.internal.GlobeChannels;
+import org.openhab.binding.espmilighthub.internal.GlobeKey;
+import org.openhab.binding.espmilighthub.internal.GlobeRegistry;
+import org.openhab.binding.espmilighthub.internal.GlobeStateStore;
+import org.openhab.binding.espmilighthub.internal.InFlightWindow;
+import org.openhab.binding.espmilighthub.internal.IncomingState;
+import org.openhab.binding.espmilighthub.internal.IncomingStateDispatcher;
+import org.openhab.binding.espmilighthub.internal.LatencyHistogram;
+import org.openhab.binding.espmilighthub.internal.MilightState;
+import org.openhab.binding.espmilighthub.internal.OutgoingCommand;
+import org.openhab.binding.espmilighthub.internal.PersistentOutboundLog;
+import org.openhab.binding.espmilighthub.internal.StatePayloadParser;
+import org.openhab.binding.espmilighthub.internal.StateSnapshot;
+import org.openhab.binding.espmilighthub.internal.TopicCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,270 +105,419 @@ import org.slf4j.LoggerFactory;
 public class EspMilightHubBridgeHandler extends BaseBridgeHandler implements MqttCallbackExtended {
 
     public static final Set<ThingTypeUID> SUPPORTED_THING_TYPES = Collections.singleton(THING_TYPE_BRIDGE);
-    private final ScheduledExecutorService checkConnection = Executors.newSingleThreadScheduledExecutor();
+    // The executors are made by initialize() and shut down by dispose(), so a removed bridge leaves no threads behind.
+    private ScheduledExecutorService checkConnection = null;
     private ScheduledFuture<?> checkConnectionJob = null;
+    private ScheduledFuture<?> metricsJob = null;
+    private ScheduledFuture<?> echoSweepJob = null;
     private final Logger logger = LoggerFactory.getLogger(EspMilightHubBridgeHandler.class);
 
     public static String confirmedAddress = "empty";
     public static String confirmedUser = "empty";
     public static String confirmedPassword = "empty";
     public static ThingUID confirmedBridgeUID;
-    static boolean triggerRefresh = true;
-
-    private final ScheduledExecutorService schedulerOut = Executors.newSingleThreadScheduledExecutor();
-    private ScheduledFuture<?> sendQueuedMQTTTimerJob = null;
-    private final ScheduledExecutorService schedulerIn = Executors.newSingleThreadScheduledExecutor();
-    private ScheduledFuture<?> processIncommingMQTTTimerJob = null;
-
-    private LinkedList<String> fifoOutgoingTopic = new LinkedList<String>();
-    private LinkedList<String> fifoOutgoingPayload = new LinkedList<String>();
-    public ReentrantLock lockOutGoing = new ReentrantLock();
-    private LinkedList<String> fifoIncommingTopic = new LinkedList<String>();
-    private LinkedList<String> fifoIncommingPayload = new LinkedList<String>();
-    public ReentrantLock lockInComming = new ReentrantLock();
-
-    private MqttClient client = null;
-    private Configuration bridgeConfig;
-    private boolean increaseChoke = false;
+
+    private ExecutorService schedulerOut = null;
+    private Future<?> commandSenderJob = null;
+    private CommandSender commandSender = null;
+    private volatile AdaptivePacer adaptivePacer = null;
+    // One single thread executor per INBOUND_WORKERS, each applies the states of its share of the remotes.
+    private ExecutorService[] schedulersIn = new ExecutorService[0];
+    private ScheduledExecutorService schedulerDebounce = null;
+    private volatile CommandDebouncer debouncer = null;
+    private volatile PersistentOutboundLog outboundLog = null;
+
+    private CommandRingBuffer<OutgoingCommand> fifoOutgoing = new CommandRingBuffer<OutgoingCommand>(
+            EspMilightHubConfiguration.DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST);
+    private final DropListener<OutgoingCommand> droppedOutgoing = new DropListener<OutgoingCommand>() {
+        @Override
+        public void dropped(OutgoingCommand lost) {
+            lost.cancel();
+            logger.warn("Outgoing MQTT queue is full ({} messages), dropped the command for {}",
+                    fifoOutgoing.capacity(), lost.getTopic());
+        }
+    };
+    private final CommandCoalescer outgoingCoalescer = new CommandCoalescer();
+    private volatile IncomingStateDispatcher incomingStates = null;
+    private final GlobeRegistry globes = new GlobeRegistry();
+    private final AtomicLong suppressedUpdates = new AtomicLong();
+    private final EchoTracker echoes = new EchoTracker(
+            TimeUnit.MILLISECONDS.toNanos(EspMilightHubConfiguration.DEFAULT_ECHO_TIMEOUT));
+    // One for each inbound worker thread, refilled for every message.
+    private final ThreadLocal<MilightState> parsedState = new ThreadLocal<MilightState>() {
+        @Override
+        protected MilightState initialValue() {
+            return new MilightState();
+        }
+    };
+    // The states saved when openHAB last stopped, each is used once when its globe registers.
+    private volatile Map<GlobeKey, MilightState> restoredStates = new ConcurrentHashMap<GlobeKey, MilightState>();
+    private volatile File snapshotFile = null;
+    private volatile boolean snapshotChanged = false;
+    // Set when a REFRESH finds nothing cached, the retained states are then fetched again at the next poll.
+    private volatile boolean resyncRequested = false;
+    private final Set<GlobeChannels> refreshPending = Collections
+            .newSetFromMap(new ConcurrentHashMap<GlobeChannels, Boolean>());
+
+    private static final long MQTT_WAIT_MILLIS = 20000;
+    private static final String ALL_STATES = TopicCodec.STATES_PREFIX + "#";
+    // The remotes subscribed to with SUBSCRIBE_THINGS_ONLY, eg milight/states/0x01/rgb_cct/+.
+    private final Set<String> subscribedFilters = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile MqttAsyncClient client = null;
+    // Replaced with each new client so late answers about an old client's messages cannot free places in the new one.
+    private volatile InFlightWindow inFlightWindow = new InFlightWindow(
+            EspMilightHubConfiguration.DEFAULT_INFLIGHT_WINDOW);
+    // Replaced as a whole when the configuration changes, read it once into a local when using several settings.
+    private volatile EspMilightHubConfiguration config = EspMilightHubConfiguration.from(new Configuration());
     EspMilightHubHandler childHandler;
 
-    static private String resolveJSON(String messageJSON, String jsonPath, int resultMaxLength) {
-        String result = "";
-        int index = 0;
-        index = messageJSON.indexOf(jsonPath);
-        if (index != -1) // It was found as -1 means "not found"
-        {
-            if ((index + jsonPath.length() + resultMaxLength) > messageJSON.length()) {
-                result = (messageJSON.substring(index + jsonPath.length(), messageJSON.length()));
-            } else {
-                result = (messageJSON.substring(index + jsonPath.length(),
-                        index + jsonPath.length() + resultMaxLength));
+    private static final String METRICS_SUMMARY = "MQTT out: {}/s, {} queued, waited p50 {}ms p95 {}ms p99 {}ms, {} merged, {} dropped. MQTT in: {}/s, {} queued, processed p50 {}ms p99 {}ms, {} replaced, {} dropped.";
+    // Only used by the metrics job.
+    private long lastMetricsNanos = System.nanoTime();
+    private long lastSentCount = 0;
+    private long lastReceivedCount = 0;
+    private long lastDroppedCount = 0;
+
+    private void updateChannel(GlobeChannels globe, int channel, State state) {
+        if (globe.isNewState(channel, state)) {
+            updateState(globe.getChannel(channel), state);
+        } else {
+            suppressedUpdates.incrementAndGet();
+        }
+    }
+
+    private void updateBulbMode(GlobeChannels globe, StringType bulbMode) {
+        if (globe.isNewState(GlobeChannels.BULB_MODE, bulbMode)) {
+            // This is not a double up and is used to update the mode in the espmilighthubhandler
+            // Halogen dimming needs CHANNEL_BULB_MODE linked for the feature to work!
+            postCommand(globe.getBulbMode(), bulbMode);
+            updateState(globe.getBulbMode(), bulbMode);
+        } else {
+            suppressedUpdates.incrementAndGet();
+        }
+    }
+
+    /**
+     * Makes the next state from the hub update the channel, even if it has not changed. Only the channel a command was
+     * sent to can be showing something other than what the bridge last sent it.
+     */
+    public void forgetPublishedState(Thing globeThing, String channelId) {
+        GlobeChannels globe = globes.get(globeThing);
+        if (globe != null) {
+            globe.forgetState(channelId);
+        }
+    }
+
+    /**
+     * Holds the last state of every globe, shared by the globe handlers for the level to turn back on at and the bulb
+     * mode.
+     */
+    public GlobeStateStore getStateStore() {
+        return globes.getStateStore();
+    }
+
+    /**
+     * @return the globe's slot in the {@link #getStateStore()}, or -1 if the thing is not a globe.
+     */
+    public int getStateSlot(Thing globeThing) {
+        return globes.stateSlotFor(globeThing);
+    }
+
+    /**
+     * Answers a REFRESH by sending the states the hub has already reported for the globe to its channels again. The
+     * REFRESH for each channel of a globe arrive together, so they are answered once. Only if nothing is known about
+     * the globe yet is the broker asked to resend the retained states, at the next connection check.
+     */
+    public void refreshGlobe(Thing globeThing) {
+        GlobeChannels globe = globes.get(globeThing);
+        if (globe != null && refreshPending.add(globe)) {
+            runInbound(globe, new RefreshGlobe(globe));
+        }
+    }
+
+    /**
+     * Runs the task on the inbound worker that applies the globe's states, so the two never overlap.
+     */
+    private void runInbound(GlobeChannels globe, Runnable task) {
+        IncomingStateDispatcher incoming = incomingStates;
+        if (incoming != null) {
+            incoming.execute(globe.getGlobeKey(), task);
+        }
+    }
+
+    /**
+     * Runs on the inbound worker of the globe, after any states for it that were already being applied.
+     */
+    private class RefreshGlobe implements Runnable {
+        private final GlobeChannels globe;
+
+        RefreshGlobe(GlobeChannels globe) {
+            this.globe = globe;
+        }
+
+        @Override
+        public void run() {
+            refreshPending.remove(globe);
+            MilightState state = new MilightState();
+            if (!globe.copyLastKnown(state)) {
+                resyncRequested = true;
+                return;
             }
-            index = result.indexOf(','); // need to be careful, only matches first bad char found//
-            if (index == -1)// , not found so make second check
-            {
-                index = result.indexOf('"');
-                if (index == -1)// " not found so it passed both checks
-                {
-                    index = result.indexOf('}');
-                    if (index == -1)// } not found so it passed all 3 checks
-                    {
-                        return result;
-                    } else {
-                        return result.substring(0, index); // Strip off the } as it is the only bad char.
-                    }
-                } else { // no , but it found a ", have not checked for } as have not seen that occur yet.
-                    return result.substring(0, index); // Strip off the " as it is a bad char, careful as } may still be
-                                                       // in string.
-                }
-            } else { // Found a "," , now we need to check for " in case both are in string.
+            globe.forgetStates();
+            processIncomingState(globe, state);
+        }
+    }
 
-                result = result.substring(0, index); // Strip off any left over char.
-                index = result.indexOf('"');
-                if (index == -1)// " not found so it passed both checks
-                {
-                    return result;
-                } else {
-                    return result.substring(0, index); // Strip off any left over char.
+    private void forgetAllPublishedStates() {
+        for (GlobeChannels[] groups : globes.all()) {
+            for (GlobeChannels globe : groups) {
+                if (globe != null) {
+                    globe.forgetStates();
                 }
             }
         }
-        return "";
     }
 
-    private void processIncomingState(String globeType, String remoteCode, String remoteGroupID, String messageJSON) {
-        String channelPrefix = "espmilighthub:" + globeType + ":" + thing.getUID().getId() + ":" + remoteCode
-                + remoteGroupID + ":";
+    /**
+     * The number of channel updates skipped because the channel already showed that state.
+     */
+    public long getSuppressedUpdateCount() {
+        return suppressedUpdates.get();
+    }
 
+    private void processIncomingState(GlobeChannels globe, MilightState state) {
+        globe.rememberState(state);
+        snapshotChanged = true;
         // Need to handle State and Level at the same time to process level=0 as off//
         int iBulbLevel = 1;
-        String bulbState = resolveJSON(messageJSON, "\"state\":\"", 3);
-        String bulbLevel = resolveJSON(messageJSON, "\"level\":", 3);
 
         if (logger.isTraceEnabled()) {
             logger.trace("Processing new incoming MQTT message to update Openhab's controls.");
-            logger.trace("Message\t={}", messageJSON);
-            logger.trace("globeType\t={}", globeType);
-            logger.trace("remoteCode\t={}", remoteCode);
-            logger.trace("remoteGroupID\t={}", remoteGroupID);
-            logger.trace("Chan Prefix\t={}", channelPrefix);
-            logger.trace("bulbState\t={}", bulbState);
-            logger.trace("bulbLevel\t={}", bulbLevel);
+            logger.trace("Globe\t={}", globe.getThingUID());
+            logger.trace("State\t={}", state);
         }
 
-        if (!bulbLevel.isEmpty()) {
+        boolean bulbOff = state.hasState() && state.getState() == MilightState.STATE_OFF;
+        if (state.hasLevel()) {
 
-            if ("0".equals(bulbLevel) || bulbState.contains("OFF")) {
-                updateState(new ChannelUID(channelPrefix + CHANNEL_LEVEL), new PercentType(0));
-                updateState(new ChannelUID(channelPrefix + CHANNEL_LEVEL), OnOffType.valueOf("OFF"));
-                if ((boolean) bridgeConfig.get(CONFIG_LEVEL_FOLLOWS_COLOUR)) {
+            if (state.getLevel() == 0 || bulbOff) {
+                // Both states are sent as a pair so OFF is the one remembered.
+                if (globe.isNewState(GlobeChannels.LEVEL, OnOffType.OFF)) {
+                    updateState(globe.getLevel(), PercentType.ZERO);
+                    updateState(globe.getLevel(), OnOffType.OFF);
+                } else {
+                    suppressedUpdates.incrementAndGet();
+                }
+                if (config.getLevelFollowsColour()) {
                     iBulbLevel = 0;
                 } else {
                     return;
                 }
             } else {
-                iBulbLevel = Math.round(Float.valueOf(bulbLevel));
-                // logger.trace("iBulbLevel\t={}", iBulbLevel);
-                updateState(new ChannelUID(channelPrefix + CHANNEL_LEVEL), new PercentType(iBulbLevel));
+                iBulbLevel = state.getLevel();
+                updateChannel(globe, GlobeChannels.LEVEL, GlobeChannels.percent(iBulbLevel));
             }
 
-        } else if (bulbState.contains("ON") || bulbState.contains("OFF")) { // NOTE: Level is missing when this runs
-            updateState(new ChannelUID(channelPrefix + CHANNEL_LEVEL), OnOffType.valueOf(bulbState));
+        } else if (state.hasState()) { // NOTE: Level is missing when this runs
+            updateChannel(globe, GlobeChannels.LEVEL, bulbOff ? OnOffType.OFF : OnOffType.ON);
         }
 
-        String bulbMode = resolveJSON(messageJSON, "\"bulb_mode\":\"", 5);
-        if ("white".equals(bulbMode)) {
-            if (!"cct".equals(globeType) && !"fut091".equals(globeType)) {
-                // This is not a double up and is used to update the mode in the espmilighthubhandler
-                // Halogen dimming needs CHANNEL_BULB_MODE linked for the feature to work!
-                postCommand(new ChannelUID(channelPrefix + CHANNEL_BULB_MODE), new StringType("white"));
-                updateState(new ChannelUID(channelPrefix + CHANNEL_BULB_MODE), new StringType("white"));
-                updateState(new ChannelUID(channelPrefix + CHANNEL_COLOUR), new HSBType("0,0," + iBulbLevel));
-                updateState(new ChannelUID(channelPrefix + CHANNEL_DISCO_MODE), new DecimalType("-1"));
+        int bulbMode = state.hasBulbMode() ? state.getBulbMode() : MilightState.BULB_MODE_UNKNOWN;
+        if (bulbMode == MilightState.BULB_MODE_WHITE) {
+            if (globe.hasBulbMode()) {
+                updateBulbMode(globe, GlobeChannels.BULB_MODE_WHITE);
+                updateChannel(globe, GlobeChannels.COLOUR, GlobeChannels.white(iBulbLevel));
+                updateChannel(globe, GlobeChannels.DISCO_MODE, GlobeChannels.DISCO_MODE_NONE);
             }
-            String bulbCTemp = resolveJSON(messageJSON, "\"color_temp\":", 3);
-            if (!bulbCTemp.isEmpty()) {
-                int ibulbCTemp = (int) Math.round(((Float.valueOf(bulbCTemp) / 2.17) - 171) * -1);
-                updateState(new ChannelUID(channelPrefix + CHANNEL_COLOURTEMP), new PercentType(ibulbCTemp));
+            if (state.hasColourTemp()) {
+                int ibulbCTemp = (int) Math.round(((state.getColourTemp() / 2.17) - 171) * -1);
+                updateChannel(globe, GlobeChannels.COLOUR_TEMPERATURE, GlobeChannels.percent(ibulbCTemp));
             }
 
-        } else if ("color".equals(bulbMode)) {
+        } else if (bulbMode == MilightState.BULB_MODE_COLOR) {
 
-            updateState(new ChannelUID(channelPrefix + CHANNEL_BULB_MODE), new StringType("color"));
-            updateState(new ChannelUID(channelPrefix + CHANNEL_DISCO_MODE), new DecimalType("-1"));
-            postCommand(new ChannelUID(channelPrefix + CHANNEL_BULB_MODE), new StringType("color"));
+            updateBulbMode(globe, GlobeChannels.BULB_MODE_COLOR);
+            updateChannel(globe, GlobeChannels.DISCO_MODE, GlobeChannels.DISCO_MODE_NONE);
 
-            String bulbHue = resolveJSON(messageJSON, "\"hue\":", 3);
-            // logger.trace("bulbHue\t={}", bulbHue);
-            String bulbSaturation = resolveJSON(messageJSON, "\"saturation\":", 3);
-            // logger.trace("bulbSaturation\t={}", bulbSaturation);
-
-            if ("".equals(bulbHue)) {
+            if (!state.hasHue()) {
                 logger.warn("Milight MQTT message came in as being a colour mode, but was missing a HUE value.");
             } else {
-                if ("".equals(bulbSaturation)) {
-                    bulbSaturation = "100";
-                }
-                updateState(new ChannelUID(channelPrefix + CHANNEL_COLOUR),
-                        new HSBType(bulbHue + "," + bulbSaturation + "," + iBulbLevel));
+                int bulbSaturation = state.hasSaturation() ? state.getSaturation() : 100;
+                updateChannel(globe, GlobeChannels.COLOUR, new HSBType(new DecimalType(state.getHue()),
+                        GlobeChannels.percent(bulbSaturation), GlobeChannels.percent(iBulbLevel)));
             }
-        } else if ("scene".equals(bulbMode)) {
+        } else if (bulbMode == MilightState.BULB_MODE_SCENE) {
 
-            if (!"cct".equals(globeType) && !"fut091".equals(globeType)) {
-                updateState(new ChannelUID(channelPrefix + CHANNEL_BULB_MODE), new StringType("scene"));
-                postCommand(new ChannelUID(channelPrefix + CHANNEL_BULB_MODE), new StringType("scene"));
+            if (globe.hasBulbMode()) {
+                updateBulbMode(globe, GlobeChannels.BULB_MODE_SCENE);
             }
 
-            String bulbDiscoMode = resolveJSON(messageJSON, "\"mode\":", 1);
-            // logger.trace("bulbDiscoMode=\t{}", bulbDiscoMode);
-
-            if ("".equals(bulbDiscoMode)) {
-                ;
-            } else {
-                updateState(new ChannelUID(channelPrefix + CHANNEL_DISCO_MODE),
-                        new DecimalType(bulbDiscoMode.toString()));
+            if (state.hasMode()) {
+                updateChannel(globe, GlobeChannels.DISCO_MODE, GlobeChannels.discoMode(state.getMode()));
             }
-        } else if ("night".equals(bulbMode)) {
-            if (!"cct".equals(globeType) && !"fut091".equals(globeType)) {
-                postCommand(new ChannelUID(channelPrefix + CHANNEL_BULB_MODE), new StringType("night"));
-                updateState(new ChannelUID(channelPrefix + CHANNEL_BULB_MODE), new StringType("night"));
-                if (this.get1TriggersNightMode()) {
-                    updateState(new ChannelUID(channelPrefix + CHANNEL_LEVEL), new PercentType("1"));
+        } else if (bulbMode == MilightState.BULB_MODE_NIGHT) {
+            if (globe.hasBulbMode()) {
+                updateBulbMode(globe, GlobeChannels.BULB_MODE_NIGHT);
+                if (config.get1TriggersNightMode()) {
+                    updateChannel(globe, GlobeChannels.LEVEL, GlobeChannels.percent(1));
                 }
             }
         }
     }
 
-    Runnable pollingIncommingQueuedMQTT = new Runnable() {
-        @Override
-        public void run() {
-            if (thing.getStatus() == ThingStatus.OFFLINE) {
-                // keeps the queue ready until it comes back online to process//
-                return;
-            } else if (!fifoIncommingTopic.isEmpty()) {
-                lockInComming.lock();
-                String topic, payload;
-                try {
-                    topic = fifoIncommingTopic.removeFirst();
-                    payload = fifoIncommingPayload.removeFirst();
-                } finally {
-                    lockInComming.unlock();
-                }
-                String cutTopic = topic.replace("milight/states/", "");
-                int index = cutTopic.indexOf("/");
-                if (index != -1) // -1
-                                 // means
-                                 // "not
-                                 // found"
-                {
-                    String remoteCode = (cutTopic.substring(0, index)); // Store the remote code for use later
-                    cutTopic = topic.replace("milight/states/" + remoteCode + "/", "");
-                    index = cutTopic.indexOf("/");
-                    if (index != -1) // -1 means
-                                     // "not found"
-                    {
-                        String globeType = (cutTopic.substring(0, index));
-                        String remoteGroupID = (cutTopic.substring(++index, ++index));
-                        if ("0".contentEquals(remoteGroupID) && "fut089".contains(globeType)) {
-                            processIncomingState(globeType, remoteCode, "0", payload);
-                            processIncomingState(globeType, remoteCode, "1", payload);
-                            processIncomingState(globeType, remoteCode, "2", payload);
-                            processIncomingState(globeType, remoteCode, "3", payload);
-                            processIncomingState(globeType, remoteCode, "4", payload);
-                            processIncomingState(globeType, remoteCode, "5", payload);
-                            processIncomingState(globeType, remoteCode, "6", payload);
-                            processIncomingState(globeType, remoteCode, "7", payload);
-                            processIncomingState(globeType, remoteCode, "8", payload);
-                        } else if ("0".contentEquals(remoteGroupID)) {
-                            processIncomingState(globeType, remoteCode, "0", payload);
-                            processIncomingState(globeType, remoteCode, "1", payload);
-                            processIncomingState(globeType, remoteCode, "2", payload);
-                            processIncomingState(globeType, remoteCode, "3", payload);
-                            processIncomingState(globeType, remoteCode, "4", payload);
-                        } else {
-                            processIncomingState(globeType, remoteCode, remoteGroupID, payload);
-                        }
-                    }
-                }
-            } else if (!processIncommingMQTTTimerJob.isCancelled()) {
-                processIncommingMQTTTimerJob.cancel(true);
-                if (processIncommingMQTTTimerJob.isCancelled()) {
-                    processIncommingMQTTTimerJob = null;
+    // Package private so the benchmarks can feed states in without a broker.
+    void processIncomingMessage(IncomingState state) {
+        String topic = state.getTopic();
+        GlobeKey globeKey = TopicCodec.parseStateTopic(topic);
+        if (globeKey == null) {
+            logger.debug("Ignoring the MQTT message on {} as it is not a Milight state topic.", topic);
+            return;
+        }
+        // Only globes that have a thing setup are in the registry, so there is nothing to do for the rest.
+        GlobeChannels[] groups = globes.getGroups(globeKey);
+        if (groups == null) {
+            return;
+        }
+        MilightState payload = parsedState.get();
+        if (!StatePayloadParser.parse(state.getPayload(), payload)) {
+            logger.debug("Milight state on {} was not valid JSON, only the fields before the error are used.", topic);
+        }
+        int remoteGroupID = globeKey.getGroup();
+        if (remoteGroupID == 0) {
+            // Group 0 is all groups of the remote, fut089 has 8 groups and the others 4.
+            int lastGroup = Math.min(globeKey.getGlobeType().getLastGroup(), groups.length - 1);
+            for (int group = 0; group <= lastGroup; group++) {
+                if (groups[group] != null) {
+                    processIncomingState(groups[group], payload);
                 }
             }
+        } else if (remoteGroupID < groups.length && groups[remoteGroupID] != null) {
+            processIncomingState(groups[remoteGroupID], payload);
+        }
+    }
+
+    IncomingStateDispatcher.Processor incomingProcessor = new IncomingStateDispatcher.Processor() {
+        @Override
+        public boolean isReady() {
+            // keeps the queue ready until it comes back online to process//
+            return thing.getStatus() != ThingStatus.OFFLINE;
+        }
+
+        @Override
+        public void process(IncomingState state) {
+            processIncomingMessage(state);
         }
     };
 
     @Override
     public void messageArrived(String topic, MqttMessage payload) throws Exception {
-        logger.debug("* Recieved the following new Milight state:{} : {}", topic, payload.toString());
-        lockInComming.lock();
-        try {
-            fifoIncommingTopic.addLast(topic);
-            fifoIncommingPayload.addLast(payload.toString());
-        } finally {
-            lockInComming.unlock();
+        if (logger.isDebugEnabled()) {
+            logger.debug("* Recieved the following new Milight state:{} : {}", topic, payload.toString());
         }
-        if (processIncommingMQTTTimerJob == null) {
-            processIncommingMQTTTimerJob = schedulerIn.scheduleWithFixedDelay(pollingIncommingQueuedMQTT, 10, 10,
-                    TimeUnit.MILLISECONDS);
+        IncomingState state = new IncomingState(topic, payload.getPayload());
+        GlobeKey globeKey = TopicCodec.parseStateTopic(topic);
+        if (globeKey != null && !payload.isRetained()) {
+            // Matched here as a state replaced in the queue by a newer one still answers a command. A retained state
+            // is the broker replaying an old one, not the hub answering.
+            echoes.stateReceived(globeKey, state.getReceivedNanos());
+        }
+        IncomingStateDispatcher incoming = incomingStates;
+        if (incoming != null) {
+            incoming.submit(state);
         }
     }
 
+    /**
+     * Subscribes to every state on the broker, or with SUBSCRIBE_THINGS_ONLY to the states of each remote that has a
+     * globe thing, dropping remotes that no longer have one. Subscribing makes the broker resend the retained states.
+     * Does not wait, so it is safe to call from the MQTT callbacks.
+     */
     public void subscribeToMQTT() {
+        MqttAsyncClient current = client;
+        if (current == null) {
+            return;
+        }
+        if (!config.getSubscribeThingsOnly()) {
+            subscribe(current, ALL_STATES);
+            return;
+        }
+        Set<String> wanted = new HashSet<String>();
+        for (GlobeChannels[] groups : globes.all()) {
+            for (GlobeChannels globe : groups) {
+                if (globe != null) {
+                    wanted.add(TopicCodec.stateFilter(globe.getGlobeKey()));
+                    break;
+                }
+            }
+        }
+        for (String filter : subscribedFilters) {
+            if (!wanted.contains(filter) && subscribedFilters.remove(filter)) {
+                unsubscribe(current, filter);
+            }
+        }
+        // Subscribed again even when already subscribed, so the broker resends the retained states.
+        for (String filter : wanted) {
+            subscribedFilters.add(filter);
+            subscribe(current, filter);
+        }
+    }
+
+    private void subscribeRemote(MqttAsyncClient current, GlobeKey key) {
+        String filter = TopicCodec.stateFilter(key);
+        if (subscribedFilters.add(filter)) {
+            subscribe(current, filter);
+        }
+    }
+
+    private void subscribe(MqttAsyncClient current, String filter) {
         try {
-            client.subscribe("milight/states/#", 1);
-            logger.info("Sucessfully subscribed to milight/states/#");
+            current.subscribe(filter, 1, null, subscribeListener);
         } catch (MqttException e) {
-            logger.error("Error: Could not subscribe to 'milight/states/#' cause is:{}", e);
+            logger.error("Error: Could not subscribe to '{}' cause is:{}", filter, e);
         }
     }
 
+    private void unsubscribe(MqttAsyncClient current, String filter) {
+        try {
+            current.unsubscribe(filter);
+        } catch (MqttException e) {
+            logger.debug("Could not unsubscribe from {}:{}", filter, e.getMessage());
+        }
+    }
+
+    private final IMqttActionListener subscribeListener = new IMqttActionListener() {
+        @Override
+        public void onSuccess(IMqttToken asyncActionToken) {
+            logger.info("Sucessfully subscribed to {}", Arrays.toString(asyncActionToken.getTopics()));
+        }
+
+        @Override
+        public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+            logger.error("Error: Could not subscribe to '{}' cause is:{}",
+                    Arrays.toString(asyncActionToken.getTopics()), exception.getMessage());
+        }
+    };
+
     @Override
     public void connectComplete(boolean reconnect, java.lang.String serverURI) {
         logger.info("Sucessfully connected to the MQTT broker.");
         updateStatus(ThingStatus.ONLINE);
         recordBridgeID();
+        MqttAsyncClient current = client;
+        if (current != null && config.getSubscribeThingsOnly()) {
+            // Left over from before the setting was changed when the broker kept the session.
+            unsubscribe(current, ALL_STATES);
+        }
+        // The broker resends the retained states, make sure they reach every channel.
+        forgetAllPublishedStates();
+        subscribeToMQTT();
+        replayOutboundLog();
+        if (commandSender != null) {
+            commandSender.wake();
+        }
+        if (incomingStates != null) {
+            incomingStates.schedule();
+        }
     }
 
     @Override
@@ -339,143 +528,320 @@ public class EspMilightHubBridgeHandler extends BaseBridgeHandler implements Mqt
     }
 
     public boolean connectMQTT(boolean useCleanSession) {
+        EspMilightHubConfiguration settings = config;
         try {
-            client = new MqttClient(bridgeConfig.get(CONFIG_MQTT_ADDRESS).toString(),
+            client = new MqttAsyncClient(settings.getMqttAddress(),
                     "espMilightHub:" + this.getThing().getUID().getId().toString(), new MemoryPersistence());
+            inFlightWindow = new InFlightWindow(settings.getInFlightWindow());
             MqttConnectOptions options = new MqttConnectOptions();
             options.setCleanSession(useCleanSession);
-            if (bridgeConfig.get(CONFIG_MQTT_USER_NAME) != null) {
-                options.setUserName(bridgeConfig.get(CONFIG_MQTT_USER_NAME).toString());
-                confirmedUser = bridgeConfig.get(CONFIG_MQTT_USER_NAME).toString();
+            String userName = settings.getMqttUserName();
+            if (userName != null) {
+                options.setUserName(userName);
+                confirmedUser = userName;
             }
-            if (bridgeConfig.get(CONFIG_MQTT_PASSWORD) != null) {
-                options.setPassword(bridgeConfig.get(CONFIG_MQTT_PASSWORD).toString().toCharArray());
-                confirmedPassword = bridgeConfig.get(CONFIG_MQTT_PASSWORD).toString();
+            String password = settings.getMqttPassword();
+            if (password != null) {
+                options.setPassword(password.toCharArray());
+                confirmedPassword = password;
             }
-            options.setMaxInflight(30); // up to 30 messages at once can be sent without a token back
+            // The sender never has more than the window waiting for a token back, so Paho never refuses a publish.
+            options.setMaxInflight(settings.getInFlightWindow());
             options.setAutomaticReconnect(true);
             options.setKeepAliveInterval(20);
             options.setConnectionTimeout(20); // connection must be made in under 20 seconds
             client.setCallback(this);
-            client.connect(options);
+            client.connect(options).waitForCompletion(MQTT_WAIT_MILLIS);
         } catch (MqttException e) {
             logger.error("Error: Could not connect to MQTT broker.{}", e);
             client = null;
             return false;
         }
-        confirmedAddress = bridgeConfig.get(CONFIG_MQTT_ADDRESS).toString();
+        confirmedAddress = settings.getMqttAddress();
         updateStatus(ThingStatus.ONLINE);
         return true;
     }
 
     @Override
     public void deliveryComplete(IMqttDeliveryToken token) {
+        deliveryFinished(token, null);
     }
 
-    private void sendMQTT(String topic, String payload) {
-        try {
-            if (client.isConnected()) {
-                client.publish(topic, // topic
-                        payload.getBytes(), // payload
-                        1, // QoS of 1 will garrantee the message gets through without the extra overheads of 2
-                        false); // Not retained
+    private void deliveryFinished(IMqttToken token, Throwable failure) {
+        Object context = token.getUserContext();
+        if (!(context instanceof InFlightWindow.Delivery)) {
+            return;
+        }
+        InFlightWindow.Delivery delivery = (InFlightWindow.Delivery) context;
+        if (delivery.complete(failure == null)) {
+            if (failure != null) {
+                logger.warn("The MQTT broker did not accept the message for {}:{}", delivery.getTopic(),
+                        failure.getMessage());
             }
-        } catch (MqttPersistenceException e) {
-            logger.error("Error: Could not connect/send to MQTT broker:{}", e);
+            if (commandSender != null) {
+                commandSender.wake();
+            }
+        }
+    }
+
+    private final IMqttActionListener deliveryListener = new IMqttActionListener() {
+        @Override
+        public void onSuccess(IMqttToken asyncActionToken) {
+            deliveryFinished(asyncActionToken, null);
+        }
+
+        @Override
+        public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+            deliveryFinished(asyncActionToken, exception);
+        }
+    };
+
+    private void sendMQTT(String topic, byte[] payload) {
+        MqttAsyncClient currentClient = client;
+        if (currentClient == null || !currentClient.isConnected()) {
+            return;
+        }
+        InFlightWindow.Delivery delivery = inFlightWindow.open(topic);
+        try {
+            // QoS of 1 will garrantee the message gets through without the extra overheads of 2, the token comes back
+            // in deliveryComplete so the sender can carry on straight away.
+            currentClient.publish(topic, payload, 1, false, delivery, deliveryListener);
+            echoes.commandSent(topic, System.nanoTime());
         } catch (MqttException e) {
+            delivery.complete(false);
             logger.error("Error: Could not connect/send to MQTT broker:{}", e);
         }
     }
 
-    Runnable pollingSendQueuedMQTT = new Runnable() {
+    CommandSender.Publisher publisher = new CommandSender.Publisher() {
+        @Override
+        public boolean isConnected() {
+            MqttAsyncClient currentClient = client;
+            return currentClient != null && currentClient.isConnected();
+        }
+
+        @Override
+        public boolean isFull() {
+            return inFlightWindow.isFull();
+        }
+
+        @Override
+        public void publish(String topic, byte[] payload) {
+            sendMQTT(topic, payload);
+        }
+    };
+
+    /**
+     * Number of MQTT messages waiting for the broker to acknowledge them.
+     */
+    public int getInFlightCount() {
+        return inFlightWindow.getInFlight();
+    }
+
+    /**
+     * Number of MQTT messages the broker did not accept since the bridge last connected.
+     */
+    public long getFailedPublishCount() {
+        return inFlightWindow.getFailedCount();
+    }
+
+    /**
+     * Round trips from publishing a command to the hub publishing the globe's new state, per globe and for the hub.
+     */
+    public EchoTracker getEchoTracker() {
+        return echoes;
+    }
+
+    /**
+     * Sets the sender's gap between packets, or hands it to an {@link AdaptivePacer} if ADAPTIVE_PACING is on.
+     */
+    /**
+     * Sets the gap between packets. A running {@link AdaptivePacer} only has its floor and ceiling changed, so the gap
+     * it has learnt is kept, DELAY_BETWEEN_MQTT is only where a new one starts.
+     */
+    private void applyPacing(EspMilightHubConfiguration settings, CommandSender sender) {
+        long delay = TimeUnit.MILLISECONDS.toNanos(settings.getDelayBetweenMqtt());
+        AdaptivePacer pacer = adaptivePacer;
+        if (settings.getAdaptivePacing() && pacer != null) {
+            pacer.setBounds(TimeUnit.MILLISECONDS.toNanos(settings.getAdaptiveMinDelay()),
+                    TimeUnit.MILLISECONDS.toNanos(settings.getAdaptiveMaxDelay()));
+        } else if (settings.getAdaptivePacing()) {
+            adaptivePacer = new AdaptivePacer(sender, delay,
+                    TimeUnit.MILLISECONDS.toNanos(settings.getAdaptiveMinDelay()),
+                    TimeUnit.MILLISECONDS.toNanos(settings.getAdaptiveMaxDelay()));
+            echoes.setListener(adaptivePacer);
+        } else {
+            echoes.setListener(null);
+            adaptivePacer = null;
+            sender.setGlobalGapNanos(delay);
+        }
+    }
+
+    /**
+     * Checks for commands the hub has not answered every echo timeout, so a missed echo is warned about and slows the
+     * {@link AdaptivePacer} soon after it is due rather than on the next connection check.
+     */
+    private void scheduleEchoSweep(EspMilightHubConfiguration settings) {
+        if (echoSweepJob != null) {
+            echoSweepJob.cancel(false);
+        }
+        if (checkConnection == null) {
+            return;
+        }
+        echoSweepJob = checkConnection.scheduleWithFixedDelay(sweepEchoes, settings.getEchoTimeout(),
+                settings.getEchoTimeout(), TimeUnit.MILLISECONDS);
+    }
+
+    private final Runnable sweepEchoes = new Runnable() {
         @Override
         public void run() {
-            if (client.isConnected()) {
-                if (fifoOutgoingTopic.size() >= 1) {
-                    lockOutGoing.lock();
-                    try {
-                        sendMQTT(fifoOutgoingTopic.removeFirst(), fifoOutgoingPayload.removeFirst());
-                        logger.trace("MQTT message just sent, there are now {} more messages in the queue",
-                                fifoOutgoingTopic.size());
-                    } catch (NoSuchElementException e) {
-                        logger.warn(
-                                "!!! Outgoing MQTT queue *CATCH* Triggered. Wiping the outgoing FIFO buffer clean !!!");
-                        fifoOutgoingTopic.clear();
-                        fifoOutgoingPayload.clear();
-                    } finally {
-                        lockOutGoing.unlock();
-                    }
-                } else {
-                    sendQueuedMQTTTimerJob.cancel(true);
-                    sendQueuedMQTTTimerJob = null;
-                    return;
-                }
-            }
+            expireEchoes();
         }
     };
 
-    public void queueToSendMQTT(String topic, String payload) {
+    private void expireEchoes() {
+        List<EchoTracker.GlobeEcho> flagged = echoes.expire(System.nanoTime());
+        for (EchoTracker.GlobeEcho echo : flagged) {
+            logger.warn(
+                    "The hub has not published a state for {} within {}ms of the command being sent, check the remote code and globe type are correct and the hub is not overloaded.",
+                    echo.getCommandTopic(), config.getEchoTimeout());
+        }
+    }
 
+    /**
+     * Queues a payload that must be sent exactly as given, such as a command, disco mode or the level 0 power fail
+     * preamble. These are never merged and no later state change for the globe can be merged in front of them.
+     */
+    public void queueToSendMQTT(String topic, String payload) {
         if (topic == null || payload == null) {
             logger.error("null was found in requested outgoing message:{}:{}:", topic, payload);
             return;
         }
+        queueToSendMQTT(topic, payload.getBytes(StandardCharsets.UTF_8));
+    }
 
-        try {
-            if (fifoOutgoingTopic.size() > 1 && fifoOutgoingTopic.getLast().equals(topic)
-                    && !fifoOutgoingPayload.getLast().equals("{\"state\":\"ON\",\"level\":0}")) {
-                lockOutGoing.lock();
-                try {
-                    logger.debug("Message reduction has removed a MQTT message.");
-                    fifoOutgoingTopic.removeLast();
-                    fifoOutgoingPayload.removeLast();
-                } finally {
-                    lockOutGoing.unlock();
-                }
-                if (increaseChoke == false) {
-                    increaseChoke = true;
-                    logger.debug("changing queue to DELAY_BETWEEN_SAME_GLOBE speed.");
-                    if (sendQueuedMQTTTimerJob != null) {
-                        sendQueuedMQTTTimerJob.cancel(false);
-                    }
-                    sendQueuedMQTTTimerJob = schedulerOut.scheduleWithFixedDelay(pollingSendQueuedMQTT,
-                            Integer.parseInt(bridgeConfig.get(CONFIG_DELAY_BETWEEN_SAME_GLOBE).toString()),
-                            Integer.parseInt(bridgeConfig.get(CONFIG_DELAY_BETWEEN_SAME_GLOBE).toString()),
-                            TimeUnit.MILLISECONDS);
-                }
-                logger.debug(
-                        "Message reduction has removed a command as the queue contains multiples for the same globe.");
-            } else if (increaseChoke == true) {
-                increaseChoke = false;
-                logger.debug("changing queue back to normal speed.");
-                if (sendQueuedMQTTTimerJob != null) {
-                    sendQueuedMQTTTimerJob.cancel(false);
-                }
-                sendQueuedMQTTTimerJob = schedulerOut.scheduleWithFixedDelay(pollingSendQueuedMQTT,
-                        Integer.parseInt(bridgeConfig.get(CONFIG_DELAY_BETWEEN_MQTT).toString()),
-                        Integer.parseInt(bridgeConfig.get(CONFIG_DELAY_BETWEEN_MQTT).toString()),
-                        TimeUnit.MILLISECONDS);
+    /**
+     * Queues a payload made by the {@link CommandEncoder} as an {@link CommandPriority#EFFECT}, such as a disco mode.
+     * Commands from the bulbcommand channel should be given {@link CommandPriority#ofCommand(String)} instead.
+     */
+    public void queueToSendMQTT(String topic, byte[] payload) {
+        queueToSendMQTT(topic, payload, CommandPriority.EFFECT);
+    }
+
+    /**
+     * Queues a payload made by the {@link CommandEncoder}. It is sent after, and never merged with, anything already
+     * queued for the globe. The array is not copied so it must not be changed afterwards.
+     */
+    public void queueToSendMQTT(String topic, byte[] payload, CommandPriority priority) {
+        CommandDebouncer currentDebouncer = debouncer;
+        if (currentDebouncer != null) {
+            currentDebouncer.flush(topic);
+        }
+        outgoingCoalescer.barrier(topic);
+        queueOutgoing(new OutgoingCommand(topic, payload, priority, System.nanoTime()));
+    }
+
+    /**
+     * Queues a change of state, level, hue, saturation or color_temp for a globe. Any field can be
+     * {@link CommandCoalescer#UNSET}. Level and colour changes arriving in a burst are debounced first, then if a state
+     * change for the same globe is still waiting to be sent, the two are merged so only the latest values go out. The
+     * priority comes from the fields, see {@link CommandPriority#ofState}.
+     */
+    public void queueStateToSendMQTT(String topic, int state, int level, int hue, int saturation, int colourTemp) {
+        queueStateToSendMQTT(topic, state, level, hue, saturation, colourTemp,
+                CommandPriority.ofState(state, level, hue, saturation, colourTemp));
+    }
+
+    /**
+     * Queues a change of state as above, served at least as urgently as the priority given. A
+     * {@link CommandPriority#SWITCH}, such as turning the globe on or off, is never debounced.
+     */
+    public void queueStateToSendMQTT(String topic, int state, int level, int hue, int saturation, int colourTemp,
+            CommandPriority priority) {
+        CommandDebouncer currentDebouncer = debouncer;
+        if (currentDebouncer == null) {
+            queueStateNow(topic, state, level, hue, saturation, colourTemp, priority);
+        } else if (priority == CommandPriority.SWITCH) {
+            // Switching is never held back, but whatever the slider was doing has to go first.
+            currentDebouncer.flush(topic);
+            queueStateNow(topic, state, level, hue, saturation, colourTemp, priority);
+        } else {
+            currentDebouncer.submit(topic, state, level, hue, saturation, colourTemp);
+        }
+    }
+
+    private final CommandDebouncer.Sink debouncedStates = new CommandDebouncer.Sink() {
+        @Override
+        public void forward(String topic, int state, int level, int hue, int saturation, int colourTemp) {
+            queueStateNow(topic, state, level, hue, saturation, colourTemp, CommandPriority.EFFECT);
+        }
+    };
+
+    private void queueStateNow(String topic, int state, int level, int hue, int saturation, int colourTemp,
+            CommandPriority priority) {
+        OutgoingCommand command = outgoingCoalescer.coalesce(topic, state, level, hue, saturation, colourTemp,
+                priority);
+        if (command == null) {
+            logger.debug("Message reduction has merged a MQTT message into one already queued for {}", topic);
+            return;
+        }
+        queueOutgoing(command);
+    }
+
+    private void queueOutgoing(OutgoingCommand command) {
+        PersistentOutboundLog log = outboundLog;
+        if (log != null && !publisher.isConnected()) {
+            CommandPriority priority = command.getPriority();
+            if (!log.append(command.getTopic(), command.takePayload(), priority, command.isCoalesced(),
+                    System.currentTimeMillis())) {
+                logger.warn("The outbound log is full, dropped the command for {}", command.getTopic());
             }
-            lockOutGoing.lock();
-            try {
-                fifoOutgoingTopic.addLast(topic);
-                fifoOutgoingPayload.addLast(payload);
-            } finally {
-                lockOutGoing.unlock();
+            // The broker may have come back while the command was being written.
+            if (publisher.isConnected()) {
+                replayOutboundLog();
             }
-        } catch (NoSuchElementException e) {
-            logger.info(
-                    "!!!! queueToSend *CATCH* Triggered, wiping the outgoing FIFO buffer clean and trying to resend ********************");
-            fifoOutgoingTopic.clear();
-            fifoOutgoingPayload.clear();
-            fifoOutgoingTopic.addLast(topic);
-            fifoOutgoingPayload.addLast(payload);
+            return;
+        }
+        offerOutgoing(command);
+    }
+
+    private void offerOutgoing(OutgoingCommand command) {
+        fifoOutgoing.offer(command, droppedOutgoing);
+        if (commandSender != null) {
+            commandSender.wake();
         }
+    }
+
+    /**
+     * Queues the commands kept in the outbound log while the broker was offline, with the state changes for each globe
+     * merged.
+     */
+    private void replayOutboundLog() {
+        PersistentOutboundLog log = outboundLog;
+        if (log == null || log.isEmpty()) {
+            return;
+        }
+        List<PersistentOutboundLog.Entry> entries = log.drain(System.currentTimeMillis(),
+                TimeUnit.SECONDS.toMillis(config.getPersistQueueTtl()));
+        logger.debug("Replaying {} commands from the outbound log.", entries.size());
+        long now = System.nanoTime();
+        for (PersistentOutboundLog.Entry entry : entries) {
+            outgoingCoalescer.barrier(entry.getTopic());
+            offerOutgoing(new OutgoingCommand(entry.getTopic(), entry.getPayload(), entry.getPriority(), now));
+        }
+    }
 
-        if (sendQueuedMQTTTimerJob == null) {
-            sendQueuedMQTTTimerJob = schedulerOut.scheduleWithFixedDelay(pollingSendQueuedMQTT, 0,
-                    Integer.parseInt(bridgeConfig.get(CONFIG_DELAY_BETWEEN_MQTT).toString()), TimeUnit.MILLISECONDS);
-            logger.debug("Started timer because it was null.");
+    private void openOutboundLog(EspMilightHubConfiguration settings) {
+        if (!settings.getPersistQueue()) {
+            return;
+        }
+        File logFile = new File(ConfigConstants.getUserDataFolder() + File.separator + BINDING_ID + File.separator
+                + getThing().getUID().getId() + ".queue");
+        try {
+            outboundLog = new PersistentOutboundLog(logFile, settings.getPersistQueueSize() * 1024);
+        } catch (IOException e) {
+            logger.warn("Could not open the outbound log {}, commands queued while offline will not be kept:{}",
+                    logFile, e.getMessage());
         }
     }
 
@@ -496,7 +862,7 @@ public class EspMilightHubBridgeHandler extends BaseBridgeHandler implements Mqt
 
     public void disconnectMQTT() {
         try {
-            client.disconnect();
+            client.disconnect().waitForCompletion(MQTT_WAIT_MILLIS);
             updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
                     "Currently disconnected from the MQTT broker.");
             client = null;
@@ -516,45 +882,99 @@ public class EspMilightHubBridgeHandler extends BaseBridgeHandler implements Mqt
 
     }
 
-    public int getTriggerWhiteHue() {
-        return Integer.parseInt(bridgeConfig.get(CONFIG_TRIGGER_WHITE_HUE).toString());
+    @Override
+    public void childHandlerInitialized(ThingHandler childHandler, Thing childThing) {
+        GlobeChannels globe = globes.register(childThing);
+        if (globe == null) {
+            return;
+        }
+        if (restoredStates.containsKey(globe.getGlobeKey())) {
+            runInbound(globe, new RestoreState(globe));
+        }
+        MqttAsyncClient current = client;
+        if (config.getSubscribeThingsOnly() && current != null && current.isConnected()) {
+            subscribeRemote(current, globe.getGlobeKey());
+        }
     }
 
-    public int getRGBWhiteSatThreshold() {
-        return Integer.parseInt(bridgeConfig.get(CONFIG_RGBW_WHITEMODE_SAT_THRESHOLD).toString());
-    }
+    /**
+     * Shows the saved state on the globe's channels. Runs on the globe's inbound worker, so any retained state the
+     * broker has already delivered wins and any that arrives later replaces it.
+     */
+    private class RestoreState implements Runnable {
+        private final GlobeChannels globe;
 
-    public int getTriggerWhiteSat() {
-        return Integer.parseInt(bridgeConfig.get(CONFIG_TRIGGER_WHITE_SAT).toString());
-    }
+        RestoreState(GlobeChannels globe) {
+            this.globe = globe;
+        }
 
-    public int getFavouriteWhite() {
-        return Integer.parseInt((bridgeConfig.get(CONFIG_FAVOURITE_WHITE).toString()));
+        @Override
+        public void run() {
+            MilightState saved = restoredStates.remove(globe.getGlobeKey());
+            if (saved != null && !globe.hasLastKnown()) {
+                logger.debug("Restoring the saved state of {}:{}", globe.getThingUID(), saved);
+                processIncomingState(globe, saved);
+            }
+        }
     }
 
-    public int getAutoCTempValue() {
-        if (bridgeConfig.get(CONFIG_AUTOCTEMP_MAXDIMMED_TEMPERATURE) == null) {
-            return 0;
+    private void loadStateSnapshot(EspMilightHubConfiguration settings) {
+        if (!settings.getStateSnapshot()) {
+            snapshotFile = null;
+            return;
+        }
+        File file = new File(ConfigConstants.getUserDataFolder() + File.separator + BINDING_ID + File.separator
+                + getThing().getUID().getId() + ".states");
+        snapshotFile = file;
+        try {
+            restoredStates = new ConcurrentHashMap<GlobeKey, MilightState>(StateSnapshot.load(file));
+        } catch (IOException e) {
+            logger.warn("Could not read the saved globe states from {}:{}", file, e.getMessage());
+            return;
+        }
+        // Globes already registered when the bridge restarts after a configuration change.
+        for (GlobeChannels[] groups : globes.all()) {
+            for (GlobeChannels globe : groups) {
+                if (globe != null && restoredStates.containsKey(globe.getGlobeKey())) {
+                    runInbound(globe, new RestoreState(globe));
+                }
+            }
         }
-        return Integer.parseInt((bridgeConfig.get(CONFIG_AUTOCTEMP_MAXDIMMED_TEMPERATURE).toString()));
     }
 
-    public String getDefaultCommand() {
-        return bridgeConfig.get(CONFIG_DEFAULT_COMMAND).toString();
+    private void saveStateSnapshot() {
+        File file = snapshotFile;
+        if (file == null || !snapshotChanged) {
+            return;
+        }
+        snapshotChanged = false;
+        try {
+            StateSnapshot.save(file, globes.all());
+        } catch (IOException e) {
+            logger.warn("Could not save the globe states to {}:{}", file, e.getMessage());
+        }
     }
 
-    public boolean get1TriggersNightMode() {
-        if ((boolean) bridgeConfig.get(CONFIG_1TRIGGERS_NIGHT_MODE)) {
-            return true;
+    @Override
+    public void childHandlerDisposed(ThingHandler childHandler, Thing childThing) {
+        globes.unregister(childThing);
+        GlobeKey key = TopicCodec.forThing(childThing.getThingTypeUID().getId(), childThing.getUID().getId());
+        MqttAsyncClient current = client;
+        if (!config.getSubscribeThingsOnly() || key == null || current == null || globes.getGroups(key) != null) {
+            return;
+        }
+        // That was the last globe of the remote.
+        String filter = TopicCodec.stateFilter(key);
+        if (subscribedFilters.remove(filter)) {
+            unsubscribe(current, filter);
         }
-        return false;
     }
 
-    public boolean getPowerFailsToMaxDim() {
-        if ((boolean) bridgeConfig.get(CONFIG_POWERFAILS_TO_MINDIM)) {
-            return true;
-        }
-        return false;
+    /**
+     * The current settings, the snapshot never changes so read it once per command.
+     */
+    public EspMilightHubConfiguration getConfiguration() {
+        return config;
     }
 
     private void recordBridgeID() {
@@ -562,7 +982,7 @@ public class EspMilightHubBridgeHandler extends BaseBridgeHandler implements Mqt
     }
 
     private void putHttp(String urlFilePath, String content) {
-        String urlString = "http://" + bridgeConfig.get(CONFIG_HUB_IP) + urlFilePath;
+        String urlString = "http://" + config.getHubIp() + urlFilePath;
         URL url;
         try {
             url = new URL(urlString);
@@ -585,13 +1005,109 @@ public class EspMilightHubBridgeHandler extends BaseBridgeHandler implements Mqt
         }
     }
 
+    private static State millis(LatencyHistogram.Snapshot snapshot, double percentile) {
+        if (snapshot.getCount() == 0) {
+            return UnDefType.UNDEF;
+        }
+        return new DecimalType(
+                BigDecimal.valueOf(snapshot.getValueAtPercentile(percentile), 6).setScale(2, RoundingMode.HALF_UP));
+    }
+
+    private static DecimalType perSecond(long count, long nanos) {
+        return new DecimalType(BigDecimal.valueOf(count * 1e9 / Math.max(1, nanos)).setScale(1, RoundingMode.HALF_UP));
+    }
+
+    private void updateBridgeChannel(String channel, State state) {
+        updateState(new ChannelUID(getThing().getUID(), channel), state);
+    }
+
+    Runnable reportMetrics = new Runnable() {
+        @Override
+        public void run() {
+            CommandSender sender = commandSender;
+            IncomingStateDispatcher incoming = incomingStates;
+            if (sender == null || incoming == null) {
+                return;
+            }
+            long now = System.nanoTime();
+            long elapsed = now - lastMetricsNanos;
+            lastMetricsNanos = now;
+            // Both counts start again from 0 when the bridge restarts.
+            long sent = sender.getSentCount();
+            long sentSince = sent >= lastSentCount ? sent - lastSentCount : sent;
+            lastSentCount = sent;
+            long received = incoming.getReceivedCount();
+            long receivedSince = received >= lastReceivedCount ? received - lastReceivedCount : received;
+            lastReceivedCount = received;
+
+            LatencyHistogram.Snapshot waited = sender.getQueueLatency().snapshotAndReset();
+            LatencyHistogram.Snapshot processed = incoming.getProcessingTime().snapshotAndReset();
+            DecimalType outRate = perSecond(sentSince, elapsed);
+            DecimalType inRate = perSecond(receivedSince, elapsed);
+            int outDepth = fifoOutgoing.size() + sender.getWaitingCount();
+            long dropped = fifoOutgoing.getDroppedCount();
+
+            updateBridgeChannel(CHANNEL_OUT_QUEUE_DEPTH, new DecimalType(outDepth));
+            updateBridgeChannel(CHANNEL_OUT_LATENCY_P50, millis(waited, 50));
+            updateBridgeChannel(CHANNEL_OUT_LATENCY_P95, millis(waited, 95));
+            updateBridgeChannel(CHANNEL_OUT_LATENCY_P99, millis(waited, 99));
+            updateBridgeChannel(CHANNEL_OUT_RATE, outRate);
+            updateBridgeChannel(CHANNEL_COALESCED_COUNT, new DecimalType(outgoingCoalescer.getCoalescedCount()));
+            updateBridgeChannel(CHANNEL_DROPPED_COUNT, new DecimalType(dropped));
+            CommandDebouncer currentDebouncer = debouncer;
+            if (currentDebouncer != null) {
+                updateBridgeChannel(CHANNEL_DEBOUNCED_COUNT, new DecimalType(currentDebouncer.getDebouncedCount()));
+            }
+            updateBridgeChannel(CHANNEL_IN_QUEUE_DEPTH, new DecimalType(incoming.size()));
+            updateBridgeChannel(CHANNEL_IN_COLLAPSED_COUNT, new DecimalType(incoming.getCollapsedCount()));
+            updateBridgeChannel(CHANNEL_IN_PROCESSING_P50, millis(processed, 50));
+            updateBridgeChannel(CHANNEL_IN_PROCESSING_P99, millis(processed, 99));
+            updateBridgeChannel(CHANNEL_IN_RATE, inRate);
+
+            expireEchoes();
+            LatencyHistogram.Snapshot roundTrip = echoes.getRoundTrip().snapshotAndReset();
+            updateBridgeChannel(CHANNEL_ECHO_LATENCY_P50, millis(roundTrip, 50));
+            updateBridgeChannel(CHANNEL_ECHO_LATENCY_P99, millis(roundTrip, 99));
+            updateBridgeChannel(CHANNEL_MISSED_ECHOES, new DecimalType(echoes.getMissedCount()));
+            AdaptivePacer pacer = adaptivePacer;
+            long gap = pacer != null ? pacer.getGapNanos()
+                    : TimeUnit.MILLISECONDS.toNanos(config.getDelayBetweenMqtt());
+            updateBridgeChannel(CHANNEL_PACING_DELAY, new DecimalType(TimeUnit.NANOSECONDS.toMillis(gap)));
+            if (logger.isDebugEnabled()) {
+                for (EchoTracker.GlobeEcho echo : echoes.all()) {
+                    LatencyHistogram.Snapshot globeRoundTrip = echo.getRoundTrip().snapshotAndReset();
+                    if (globeRoundTrip.getCount() > 0 || echo.isFlagged()) {
+                        logger.debug("Round trip for {}: p50 {}ms p99 {}ms, {} echoed, {} missed{}",
+                                echo.getCommandTopic(), millis(globeRoundTrip, 50), millis(globeRoundTrip, 99),
+                                echo.getEchoedCount(), echo.getMissedCount(),
+                                echo.isFlagged() ? ", NOT ANSWERING" : "");
+                    }
+                }
+            }
+
+            Object[] summary = new Object[] { outRate, outDepth, millis(waited, 50), millis(waited, 95),
+                    millis(waited, 99), outgoingCoalescer.getCoalescedCount(), dropped, inRate, incoming.size(),
+                    millis(processed, 50), millis(processed, 99), incoming.getCollapsedCount(),
+                    incoming.getDroppedCount() };
+            // Only bother the log when commands are being lost.
+            if (dropped != lastDroppedCount) {
+                logger.info(METRICS_SUMMARY, summary);
+            } else {
+                logger.debug(METRICS_SUMMARY, summary);
+            }
+            lastDroppedCount = dropped;
+        }
+    };
+
     Runnable pollConnection = new Runnable() {
         @Override
         public void run() {
+            saveStateSnapshot();
             if (thing.getStatus() == ThingStatus.ONLINE) {
-                // This runs every 30 seconds to check if the REFRESH command has been sent by Openhab
-                if (triggerRefresh) {
-                    triggerRefresh = false;
+                // This runs every 30 seconds to check if a REFRESH found globes the hub has not reported yet
+                if (resyncRequested) {
+                    resyncRequested = false;
+                    forgetAllPublishedStates();
                     subscribeToMQTT();
                 }
             } else if (client == null) {
@@ -602,16 +1118,81 @@ public class EspMilightHubBridgeHandler extends BaseBridgeHandler implements Mqt
         }
     };
 
+    @Override
+    public void handleConfigurationUpdate(Map<String, Object> configurationParameters) {
+        if (!isInitialized()) {
+            // The framework initializes the bridge with the new settings.
+            super.handleConfigurationUpdate(configurationParameters);
+            return;
+        }
+        // Not passed to super on a running bridge, as it would dispose and initialize it for every change.
+        validateConfigurationParameters(configurationParameters);
+        Configuration configuration = editConfiguration();
+        for (Map.Entry<String, Object> parameter : configurationParameters.entrySet()) {
+            configuration.put(parameter.getKey(), parameter.getValue());
+        }
+        updateConfiguration(configuration);
+        EspMilightHubConfiguration oldConfig = config;
+        EspMilightHubConfiguration newConfig = EspMilightHubConfiguration.from(configuration);
+        if (oldConfig.needsRestart(newConfig)) {
+            dispose();
+            initialize();
+            return;
+        }
+        config = newConfig;
+        echoes.setTimeoutNanos(TimeUnit.MILLISECONDS.toNanos(newConfig.getEchoTimeout()));
+        if (oldConfig.getEchoTimeout() != newConfig.getEchoTimeout()) {
+            scheduleEchoSweep(newConfig);
+        }
+        if (commandSender != null) {
+            if (oldConfig.pacingChanged(newConfig)) {
+                applyPacing(newConfig, commandSender);
+            }
+            commandSender.setSameGlobeGapNanos(TimeUnit.MILLISECONDS.toNanos(newConfig.getDelayBetweenSameGlobe()));
+        }
+    }
+
     @Override
     public void initialize() {
-        bridgeConfig = thing.getConfiguration();
-        if (bridgeConfig.get(CONFIG_HUB_IP) != null) {
+        EspMilightHubConfiguration settings = EspMilightHubConfiguration.from(thing.getConfiguration());
+        config = settings;
+        fifoOutgoing = new CommandRingBuffer<OutgoingCommand>(settings.getQueueCapacity(),
+                settings.getQueueOverflowPolicy());
+        outgoingCoalescer.clear();
+        checkConnection = Executors.newSingleThreadScheduledExecutor();
+        schedulerOut = Executors.newSingleThreadExecutor();
+        schedulerDebounce = Executors.newSingleThreadScheduledExecutor();
+        debouncer = new CommandDebouncer(schedulerDebounce, debouncedStates,
+                TimeUnit.MILLISECONDS.toNanos(settings.getDebounceWindow()),
+                TimeUnit.MILLISECONDS.toNanos(settings.getDebounceMaxHold()));
+        echoes.clear();
+        echoes.setTimeoutNanos(TimeUnit.MILLISECONDS.toNanos(settings.getEchoTimeout()));
+        commandSender = new CommandSender(fifoOutgoing, publisher,
+                TimeUnit.MILLISECONDS.toNanos(settings.getDelayBetweenMqtt()),
+                TimeUnit.MILLISECONDS.toNanos(settings.getDelayBetweenSameGlobe()));
+        applyPacing(settings, commandSender);
+        openOutboundLog(settings);
+        commandSenderJob = schedulerOut.submit(commandSender);
+        schedulersIn = new ExecutorService[settings.getInboundWorkers()];
+        for (int i = 0; i < schedulersIn.length; i++) {
+            schedulersIn[i] = Executors.newSingleThreadExecutor();
+        }
+        incomingStates = new IncomingStateDispatcher(schedulersIn, incomingProcessor,
+                settings.getInboundQueueCapacity(), settings.getInboundMaxBatch());
+        loadStateSnapshot(settings);
+        if (settings.getHubIp() != null) {
             putHttp("/settings",
                     "{\"mqtt_topic_pattern\":\"milight/commands/:device_id/:device_type/:group_id\",\"mqtt_update_topic_pattern\":\"\",\"mqtt_state_topic_pattern\":\"milight/states/:device_id/:device_type/:group_id\",\"group_state_fields\":[\"state\",\"level\",\"hue\",\"saturation\",\"mode\",\"color_temp\",\"bulb_mode\"]}");
         } else {
             logger.info("No HUB_IP has been provided, binding can not auto setup the Hub for you.");
         }
         checkConnectionJob = checkConnection.scheduleWithFixedDelay(pollConnection, 5, 30, TimeUnit.SECONDS);
+        scheduleEchoSweep(settings);
+        if (settings.getMetricsInterval() > 0) {
+            lastMetricsNanos = System.nanoTime();
+            metricsJob = checkConnection.scheduleWithFixedDelay(reportMetrics, settings.getMetricsInterval(),
+                    settings.getMetricsInterval(), TimeUnit.SECONDS);
+        }
     }
 
     @Override
@@ -619,17 +1200,58 @@ public class EspMilightHubBridgeHandler extends BaseBridgeHandler implements Mqt
         if (client != null) {
             disconnectMQTT();
         }
-        if (sendQueuedMQTTTimerJob != null) {
-            sendQueuedMQTTTimerJob.cancel(true);
-            sendQueuedMQTTTimerJob = null;
+        CommandDebouncer oldDebouncer = debouncer;
+        if (oldDebouncer != null) {
+            // Held slider values go to the outbound log, or are dropped with the queue, not into the next queue.
+            debouncer = null;
+            oldDebouncer.flushAll();
         }
-        if (processIncommingMQTTTimerJob != null) {
-            processIncommingMQTTTimerJob.cancel(true);
-            processIncommingMQTTTimerJob = null;
+        if (schedulerDebounce != null) {
+            schedulerDebounce.shutdownNow();
+            schedulerDebounce = null;
         }
+        if (outboundLog != null) {
+            outboundLog.close();
+            outboundLog = null;
+        }
+        saveStateSnapshot();
+        if (commandSender != null) {
+            commandSender.stop();
+        }
+        // The next initialize() makes a new sender, so the pacer starts again from DELAY_BETWEEN_MQTT.
+        echoes.setListener(null);
+        adaptivePacer = null;
+        if (commandSenderJob != null) {
+            commandSenderJob.cancel(true);
+            commandSenderJob = null;
+        }
+        if (incomingStates != null) {
+            incomingStates.clear();
+            incomingStates = null;
+        }
+        for (ExecutorService schedulerIn : schedulersIn) {
+            schedulerIn.shutdownNow();
+        }
+        schedulersIn = new ExecutorService[0];
         if (checkConnectionJob != null) {
             checkConnectionJob.cancel(true);
             checkConnectionJob = null;
         }
+        if (metricsJob != null) {
+            metricsJob.cancel(true);
+            metricsJob = null;
+        }
+        if (echoSweepJob != null) {
+            echoSweepJob.cancel(true);
+            echoSweepJob = null;
+        }
+        if (schedulerOut != null) {
+            schedulerOut.shutdownNow();
+            schedulerOut = null;
+        }
+        if (checkConnection != null) {
+            checkConnection.shutdownNow();
+            checkConnection = null;
+        }
     }
 }
@@ -14,12 +14,15 @@
 package org.openhab.binding.espmilighthub.handler;
 
 import static org.openhab.binding.espmilighthub.EspMilightHubBindingConstants.*;
+import static org.openhab.binding.espmilighthub.internal.CommandCoalescer.*;
+import static org.openhab.binding.espmilighthub.internal.CommandEncoder.*;
 
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
 import org.eclipse.smarthome.config.core.Configuration;
+import org.eclipse.smarthome.core.library.types.DecimalType;
 import org.eclipse.smarthome.core.library.types.HSBType;
 import org.eclipse.smarthome.core.library.types.StringType;
 import org.eclipse.smarthome.core.thing.ChannelUID;
@@ -29,7 +32,14 @@ import org.eclipse.smarthome.core.thing.ThingStatusDetail;
 import org.eclipse.smarthome.core.thing.ThingTypeUID;
 import org.eclipse.smarthome.core.thing.binding.BaseThingHandler;
 import org.eclipse.smarthome.core.types.Command;
+import org.eclipse.smarthome.core.types.RefreshType;
 import org.eclipse.smarthome.core.types.State;
+import org.openhab.binding.espmilighthub.internal.CommandEncoder.HubCommand;
+import org.openhab.binding.espmilighthub.internal.CommandPriority;
+import org.openhab.binding.espmilighthub.internal.EspMilightHubConfiguration;
+import org.openhab.binding.espmilighthub.internal.GlobeStateStore;
+import org.openhab.binding.espmilighthub.internal.MilightState;
+import org.openhab.binding.espmilighthub.internal.TopicCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,10 +55,11 @@ public class EspMilightHubHandler extends BaseThingHandler {
     private String globeLocation = this.getThing().getUID().getId();// eg 0x014
     private String remotesGroupID = globeLocation.substring(globeLocation.length() - 1, globeLocation.length());// eg 4
     private String remotesIDCode = globeLocation.substring(0, globeLocation.length() - 1);// eg 0x01
-    private int savedLevel = 100;
+    private String commandTopic = TopicCodec.commandTopic(remotesIDCode, globeType, remotesGroupID);
     private String lastCommand = "empty";
     private EspMilightHubBridgeHandler bridgeHandler;
-    private String bulbMode = "empty";
+    // The globe's slot in the bridge's state store, which holds the level to turn back on at and the bulb mode.
+    private int stateSlot = -1;
     @SuppressWarnings("unused")
     private Configuration config;
     public static final Set<ThingTypeUID> SUPPORTED_THING_TYPES = new HashSet<ThingTypeUID>(Arrays.asList(
@@ -60,9 +71,9 @@ public class EspMilightHubHandler extends BaseThingHandler {
         super(thing);
     }
 
-    private int autoColourTemp(int brightness) {
-        double maxTemp = bridgeHandler.getFavouriteWhite();
-        double minTemp = bridgeHandler.getAutoCTempValue();
+    private int autoColourTemp(EspMilightHubConfiguration settings, int brightness) {
+        double maxTemp = settings.getFavouriteWhite();
+        double minTemp = settings.getAutoCTempValue();
         if (minTemp <= maxTemp) {
             logger.error(
                     "AUTOCTEMP_MAXDIMMED_TEMPERATURE is less than the favourite white setting, using the favourite white instead of auto colour temp. Set parameter to null or a higher value to remove this message.");
@@ -71,72 +82,109 @@ public class EspMilightHubHandler extends BaseThingHandler {
         return (int) Math.round((minTemp - (((minTemp - maxTemp) / 100) * brightness)));
     }
 
+    private int commandToLevel(Command command) {
+        if (command instanceof DecimalType) {
+            return ((DecimalType) command).intValue();
+        }
+        return Math.round(Float.valueOf(command.toString()));
+    }
+
+    private int savedLevel() {
+        if (bridgeHandler == null || stateSlot < 0) {
+            return GlobeStateStore.DEFAULT_SAVED_LEVEL;
+        }
+        return bridgeHandler.getStateStore().getSavedLevel(stateSlot);
+    }
+
+    private void saveLevel(int level) {
+        if (bridgeHandler != null && stateSlot >= 0) {
+            bridgeHandler.getStateStore().setSavedLevel(stateSlot, level);
+        }
+    }
+
+    private boolean isInWhiteMode() {
+        return bridgeHandler != null && stateSlot >= 0
+                && bridgeHandler.getStateStore().getBulbMode(stateSlot) == MilightState.BULB_MODE_WHITE;
+    }
+
+    private void setBulbMode(String bulbMode) {
+        if (bridgeHandler != null && stateSlot >= 0) {
+            bridgeHandler.getStateStore().setBulbMode(stateSlot, GlobeStateStore.parseBulbMode(bulbMode));
+        }
+        logger.debug("Bulb Mode has changed to {}", bulbMode);
+    }
+
     @Override
     public void handleUpdate(ChannelUID channelUID, State newState) {
         if ("bulbmode".contains(channelUID.getId())) {
-            bulbMode = newState.toString();
-            logger.debug("Bulb Mode has changed to {}", bulbMode);
+            setBulbMode(newState.toString());
         }
     }
 
     @Override
     public void handleCommand(ChannelUID channelUID, Command command) {
-        if (command.toString() == "REFRESH") {
+        if (command instanceof RefreshType) {
             logger.trace("'REFRESH' command has been called for:{}", channelUID);
-            // This will cause all retained messages to be resent.
-            EspMilightHubBridgeHandler.triggerRefresh = true;
+            if (bridgeHandler != null) {
+                // Answered from the states the bridge already has, the broker is only asked when there are none.
+                bridgeHandler.refreshGlobe(getThing());
+            }
             return;
         }
+        if (bridgeHandler != null) {
+            // The item may no longer show what the bridge last sent, so the hub's next state for it must be sent.
+            bridgeHandler.forgetPublishedState(getThing(), channelUID.getId());
+        }
 
-        String topic = "milight/commands/" + remotesIDCode + "/" + globeType + "/" + remotesGroupID;
+        String topic = commandTopic;
+        EspMilightHubConfiguration settings = bridgeHandler.getConfiguration();
 
         switch (channelUID.getId()) {
             case CHANNEL_LEVEL:
 
                 if ("0".equals(command.toString()) || "OFF".equals(command.toString())) {
                     if ("cct".equals(globeType)) {
-                        bridgeHandler.queueToSendMQTT(topic, "{\"state\":\"OFF\"}");
+                        bridgeHandler.queueStateToSendMQTT(topic, STATE_OFF, UNSET, UNSET, UNSET, UNSET);
                     } else {
-                        if (bridgeHandler.getPowerFailsToMaxDim()) {
-                            bridgeHandler.queueToSendMQTT(topic, "{\"state\":\"ON\",\"level\":0}");
+                        if (settings.getPowerFailsToMinDim()) {
+                            bridgeHandler.queueToSendMQTT(topic, ON_AT_LEVEL_0, CommandPriority.SWITCH);
                         }
-                        bridgeHandler.queueToSendMQTT(topic, "{\"state\":\"OFF\"}");
+                        bridgeHandler.queueStateToSendMQTT(topic, STATE_OFF, UNSET, UNSET, UNSET, UNSET);
                     }
                     return;
                 } else if ("ON".equals(command.toString())) {
                     if ("cct".equals(globeType)) {
-                        bridgeHandler.queueToSendMQTT(topic, "{\"state\":\"ON\"}");
+                        bridgeHandler.queueStateToSendMQTT(topic, STATE_ON, UNSET, UNSET, UNSET, UNSET);
                     } else {
-                        bridgeHandler.queueToSendMQTT(topic, "{\"state\":\"ON\",\"level\":" + savedLevel + "}");
+                        bridgeHandler.queueStateToSendMQTT(topic, STATE_ON, savedLevel(), UNSET, UNSET, UNSET,
+                                CommandPriority.SWITCH);
                     }
                     return;
 
-                } else if ("1".equals(command.toString()) && bridgeHandler.get1TriggersNightMode()) {
-                    bridgeHandler.queueToSendMQTT(topic, "{\"command\":\"night_mode\"}");
+                } else if ("1".equals(command.toString()) && settings.get1TriggersNightMode()) {
+                    bridgeHandler.queueToSendMQTT(topic, encodeCommand(HubCommand.NIGHT_MODE), CommandPriority.SWITCH);
                     return;
                 }
 
-                bridgeHandler.queueToSendMQTT(topic, "{\"state\":\"ON\",\"level\":" + command.toString() + "}");
+                bridgeHandler.queueStateToSendMQTT(topic, STATE_ON, commandToLevel(command), UNSET, UNSET, UNSET);
 
                 if (globeType.equals("rgb_cct") || globeType.equals("fut089")) {
-                    if (bridgeHandler.getAutoCTempValue() != 0 && "white".contentEquals(bulbMode)) {
-                        bridgeHandler.queueToSendMQTT(topic, "{\"state\":\"ON\",\"color_temp\":"
-                                + autoColourTemp(Integer.parseInt(command.toString())) + "}");
+                    if (settings.getAutoCTempValue() != 0 && isInWhiteMode()) {
+                        bridgeHandler.queueStateToSendMQTT(topic, STATE_ON, UNSET, UNSET, UNSET,
+                                autoColourTemp(settings, commandToLevel(command)));
                     }
                 }
 
-                savedLevel = Integer.parseInt(command.toString());
+                saveLevel(commandToLevel(command));
                 break;
 
             case CHANNEL_BULB_MODE:
-                bulbMode = command.toString();
-                logger.debug("Bulb Mode has changed to {}", bulbMode);
+                setBulbMode(command.toString());
                 break;
 
             case CHANNEL_COLOURTEMP:
                 int scaledCommand = (int) Math.round((370 - (2.17 * Float.valueOf(command.toString()))));
-                bridgeHandler.queueToSendMQTT(topic,
-                        "{\"state\":\"ON\",\"level\":" + savedLevel + ",\"color_temp\":" + scaledCommand + "}");
+                bridgeHandler.queueStateToSendMQTT(topic, STATE_ON, savedLevel(), UNSET, UNSET, scaledCommand);
                 break;
 
             case CHANNEL_COMMAND:
@@ -144,106 +192,113 @@ public class EspMilightHubHandler extends BaseThingHandler {
                     lastCommand = command.toString();
 
                     if (lastCommand.equals("favourite_white")) {
-                        bridgeHandler.queueToSendMQTT(topic,
-                                "{\"state\":\"ON\",\"color_temp\":" + bridgeHandler.getFavouriteWhite() + "}");
+                        bridgeHandler.queueStateToSendMQTT(topic, STATE_ON, UNSET, UNSET, UNSET,
+                                settings.getFavouriteWhite());
                         break;
                     }
 
-                    bridgeHandler.queueToSendMQTT(topic, "{\"command\":\"" + command.toString() + "\"}");
+                    bridgeHandler.queueToSendMQTT(topic, encodeCommand(lastCommand),
+                            CommandPriority.ofCommand(lastCommand));
                 }
                 break;
 
             case CHANNEL_SEND_COMMAND:
                 if (lastCommand == "empty") {
-                    lastCommand = bridgeHandler.getDefaultCommand();
+                    lastCommand = settings.getDefaultCommand();
                     updateState(CHANNEL_COMMAND, new StringType(lastCommand));
                 }
 
                 if (lastCommand.equals("favourite_white")) {
-                    bridgeHandler.queueToSendMQTT(topic,
-                            "{\"state\":\"ON\",\"color_temp\":" + bridgeHandler.getFavouriteWhite() + "}");
+                    bridgeHandler.queueStateToSendMQTT(topic, STATE_ON, UNSET, UNSET, UNSET,
+                            settings.getFavouriteWhite());
                     break;
                 }
-                bridgeHandler.queueToSendMQTT(topic, "{\"command\":\"" + lastCommand + "\"}");
+                bridgeHandler.queueToSendMQTT(topic, encodeCommand(lastCommand),
+                        CommandPriority.ofCommand(lastCommand));
                 break;
 
             case CHANNEL_DISCO_MODE:
 
-                bridgeHandler.queueToSendMQTT(topic, "{\"mode\":\"" + command.toString() + "\"}");
+                if (command instanceof DecimalType) {
+                    bridgeHandler.queueToSendMQTT(topic, encodeMode(((DecimalType) command).intValue()));
+                } else {
+                    bridgeHandler.queueToSendMQTT(topic, encodeMode(command.toString()));
+                }
                 break;
 
             case CHANNEL_COLOUR:
                 if ("ON".equals(command.toString())) {
-                    bridgeHandler.queueToSendMQTT(topic, "{\"state\":\"ON\",\"level\":" + savedLevel + "}");
+                    bridgeHandler.queueStateToSendMQTT(topic, STATE_ON, savedLevel(), UNSET, UNSET, UNSET,
+                            CommandPriority.SWITCH);
                     break;
                 } else if ("0".equals(command.toString()) || "OFF".equals(command.toString())) {
 
-                    if (bridgeHandler.getPowerFailsToMaxDim()) {
-                        bridgeHandler.queueToSendMQTT(topic, "{\"state\":\"ON\",\"level\":0}");
+                    if (settings.getPowerFailsToMinDim()) {
+                        bridgeHandler.queueToSendMQTT(topic, ON_AT_LEVEL_0, CommandPriority.SWITCH);
                     }
 
-                    bridgeHandler.queueToSendMQTT(topic, "{\"state\":\"OFF\"}");
+                    bridgeHandler.queueStateToSendMQTT(topic, STATE_OFF, UNSET, UNSET, UNSET, UNSET);
                     break;
                 }
 
                 else if (command instanceof HSBType) {
 
-                    HSBType hsb = new HSBType(command.toString());
+                    HSBType hsb = (HSBType) command;
 
                     // This feature allows google home or Echo to trigger white mode when asked to turn color to white.
-                    if ((hsb.getHue().intValue()) == bridgeHandler.getTriggerWhiteHue()
-                            && (hsb.getSaturation().intValue()) == bridgeHandler.getTriggerWhiteSat()) {
+                    if ((hsb.getHue().intValue()) == settings.getTriggerWhiteHue()
+                            && (hsb.getSaturation().intValue()) == settings.getTriggerWhiteSat()) {
 
                         if ("rgb_cct".equals(globeType) || "fut089".equals(globeType)) {
-                            bridgeHandler.queueToSendMQTT(topic,
-                                    "{\"state\":\"ON\",\"color_temp\":" + bridgeHandler.getFavouriteWhite() + "}");
+                            bridgeHandler.queueStateToSendMQTT(topic, STATE_ON, UNSET, UNSET, UNSET,
+                                    settings.getFavouriteWhite());
                             break;
                         }
                         // globe must only have 1 type of white so do this//
-                        bridgeHandler.queueToSendMQTT(topic, "{\"command\":\"set_white\"}");
+                        bridgeHandler.queueToSendMQTT(topic, encodeCommand(HubCommand.SET_WHITE),
+                                CommandPriority.COLOUR);
                         break;
                     }
                     /////////////////////////////////////////////////////////////////////////////////////////////////////
                     else if (hsb.getBrightness().intValue() == 0) {
 
-                        if (bridgeHandler.getPowerFailsToMaxDim()) {
-                            bridgeHandler.queueToSendMQTT(topic, "{\"state\":\"ON\",\"level\":0}");
+                        if (settings.getPowerFailsToMinDim()) {
+                            bridgeHandler.queueToSendMQTT(topic, ON_AT_LEVEL_0, CommandPriority.SWITCH);
                         }
 
-                        bridgeHandler.queueToSendMQTT(topic, "{\"state\":\"OFF\"}");
+                        bridgeHandler.queueStateToSendMQTT(topic, STATE_OFF, UNSET, UNSET, UNSET, UNSET);
                         break;
                     }
                     // Handle feature for CONFIG_RGBW_WHITEMODE_SAT_THRESHOLD//////////////////////////////////////
-                    else if (bridgeHandler.getRGBWhiteSatThreshold() != -1
-                            && hsb.getSaturation().intValue() <= bridgeHandler.getRGBWhiteSatThreshold()
+                    else if (settings.getRGBWhiteSatThreshold() != -1
+                            && hsb.getSaturation().intValue() <= settings.getRGBWhiteSatThreshold()
                             && "rgbw".equals(globeType)) {
-                        bridgeHandler.queueToSendMQTT(topic, "{\"command\":\"set_white\"}");
+                        bridgeHandler.queueToSendMQTT(topic, encodeCommand(HubCommand.SET_WHITE),
+                                CommandPriority.COLOUR);
                         break;
                     }
 
                     // Normal flow for most runs here//
-                    bridgeHandler.queueToSendMQTT(topic,
-                            "{\"state\":\"ON\",\"level\":" + hsb.getBrightness().intValue() + ",\"hue\":"
-                                    + hsb.getHue().intValue() + ",\"saturation\":" + hsb.getSaturation().intValue()
-                                    + "}");
-                    savedLevel = hsb.getBrightness().intValue();
+                    bridgeHandler.queueStateToSendMQTT(topic, STATE_ON, hsb.getBrightness().intValue(),
+                            hsb.getHue().intValue(), hsb.getSaturation().intValue(), UNSET);
+                    saveLevel(hsb.getBrightness().intValue());
                     break;
                 } // end of HSB type//
 
                 // this is here for when the command is Percentype and not HSBtype//
 
-                if ("1".equals(command.toString()) && bridgeHandler.get1TriggersNightMode()) {
-                    bridgeHandler.queueToSendMQTT(topic, "{\"command\":\"night_mode\"}");
+                if ("1".equals(command.toString()) && settings.get1TriggersNightMode()) {
+                    bridgeHandler.queueToSendMQTT(topic, encodeCommand(HubCommand.NIGHT_MODE), CommandPriority.SWITCH);
                     break;
                 }
 
-                bridgeHandler.queueToSendMQTT(topic, "{\"state\":\"ON\",\"level\":" + command.toString() + "}");
-                savedLevel = Integer.parseInt(command.toString());
+                bridgeHandler.queueStateToSendMQTT(topic, STATE_ON, commandToLevel(command), UNSET, UNSET, UNSET);
+                saveLevel(commandToLevel(command));
 
                 if (globeType.equals("rgb_cct") || globeType.equals("fut089")) {
-                    if (bridgeHandler.getAutoCTempValue() != 0 && bulbMode.equals("white")) {
-                        bridgeHandler.queueToSendMQTT(topic, "{\"state\":\"ON\",\"color_temp\":"
-                                + autoColourTemp(Integer.parseInt(command.toString())) + "}");
+                    if (settings.getAutoCTempValue() != 0 && isInWhiteMode()) {
+                        bridgeHandler.queueStateToSendMQTT(topic, STATE_ON, UNSET, UNSET, UNSET,
+                                autoColourTemp(settings, commandToLevel(command)));
                     }
                 }
 
@@ -264,6 +319,7 @@ public class EspMilightHubHandler extends BaseThingHandler {
             globeLocation = this.getThing().getUID().getId();// eg 0x014
             remotesGroupID = globeLocation.substring(globeLocation.length() - 1, globeLocation.length());// eg 4
             remotesIDCode = globeLocation.substring(0, globeLocation.length() - 1);// eg 0x01
+            commandTopic = TopicCodec.commandTopic(remotesIDCode, globeType, remotesGroupID);
             // Need to remove the lowercase x from 0x12AB in case it contains all numbers
             String caseCheck = globeLocation.substring(2, globeLocation.length() - 1);
             if (!caseCheck.equals(caseCheck.toUpperCase())) {
@@ -277,6 +333,7 @@ public class EspMilightHubHandler extends BaseThingHandler {
             if (getBridge().getHandler() != null) {
 
                 bridgeHandler = (EspMilightHubBridgeHandler) getBridge().getHandler();
+                stateSlot = bridgeHandler.getStateSlot(getThing());
             } else {
                 logger.error("bridgeHandler is null");
                 logger.error("This globe {}{} does not have a bridge selected, please fix.", remotesIDCode,
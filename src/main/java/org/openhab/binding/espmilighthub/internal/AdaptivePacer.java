@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link AdaptivePacer} tunes the gap the {@link CommandSender} leaves between packets from how quickly the hub
+ * publishes the globes' new states. Every quick echo takes a millisecond off the gap, and a missed echo, or one that
+ * took much longer than the quickest seen, doubles it. The gap always stays between the floor and the ceiling.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class AdaptivePacer implements EchoTracker.Listener {
+    private static final long STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // After backing off, give the hub time to empty its radio queue before reacting again.
+    private static final long HOLD_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // The quickest round trip is allowed to drift up by 1/8 of the difference every this many echoes.
+    private static final int BASELINE_DRIFT_ECHOES = 64;
+
+    private final Logger logger = LoggerFactory.getLogger(AdaptivePacer.class);
+    private final CommandSender sender;
+    private long floorNanos;
+    private long ceilingNanos;
+    private volatile long gapNanos;
+    private long baselineNanos = Long.MAX_VALUE;
+    private int echoes = 0;
+    private long holdUntilNanos;
+    private boolean holding = false;
+
+    public AdaptivePacer(CommandSender sender, long initialNanos, long floorNanos, long ceilingNanos) {
+        this.sender = sender;
+        this.floorNanos = Math.max(0, Math.min(floorNanos, ceilingNanos));
+        this.ceilingNanos = Math.max(floorNanos, ceilingNanos);
+        this.gapNanos = clamp(initialNanos);
+        sender.setGlobalGapNanos(gapNanos);
+    }
+
+    /**
+     * Changes the floor and ceiling, keeping the gap learnt so far as long as it is still between them.
+     */
+    public synchronized void setBounds(long newFloorNanos, long newCeilingNanos) {
+        floorNanos = Math.max(0, Math.min(newFloorNanos, newCeilingNanos));
+        ceilingNanos = Math.max(newFloorNanos, newCeilingNanos);
+        setGap(gapNanos);
+    }
+
+    /**
+     * The gap the sender is currently using.
+     */
+    public long getGapNanos() {
+        return gapNanos;
+    }
+
+    @Override
+    public synchronized void roundTrip(long nanos, long now) {
+        if (++echoes % BASELINE_DRIFT_ECHOES == 0 && baselineNanos != Long.MAX_VALUE) {
+            baselineNanos += Math.max(0, nanos - baselineNanos) / 8;
+        }
+        baselineNanos = Math.min(baselineNanos, nanos);
+        if (isHolding(now)) {
+            return;
+        }
+        // Longer than this means more than one packet was already waiting in the hub when the command arrived.
+        if (nanos > baselineNanos * 2 + gapNanos) {
+            backOff(now, "took " + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms");
+        } else {
+            setGap(gapNanos - STEP_NANOS);
+        }
+    }
+
+    @Override
+    public synchronized void missed(int count, long now) {
+        if (!isHolding(now)) {
+            backOff(now, "was missed");
+        }
+    }
+
+    private boolean isHolding(long now) {
+        if (holding && now - holdUntilNanos < 0) {
+            return true;
+        }
+        holding = false;
+        return false;
+    }
+
+    private void backOff(long now, String reason) {
+        long old = gapNanos;
+        setGap(Math.max(gapNanos * 2, gapNanos + STEP_NANOS));
+        holding = true;
+        holdUntilNanos = now + HOLD_NANOS;
+        logger.debug("A state echo from the hub {}, DELAY_BETWEEN_MQTT raised from {}ms to {}ms", reason,
+                TimeUnit.NANOSECONDS.toMillis(old), TimeUnit.NANOSECONDS.toMillis(gapNanos));
+    }
+
+    private void setGap(long nanos) {
+        long gap = clamp(nanos);
+        if (gap != gapNanos) {
+            gapNanos = gap;
+            sender.setGlobalGapNanos(gap);
+        }
+    }
+
+    private long clamp(long nanos) {
+        return Math.max(floorNanos, Math.min(ceilingNanos, nanos));
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link CommandCoalescer} merges state changes heading to the same globe while an earlier one is still waiting in
+ * the outgoing queue. Only the latest state, level, hue, saturation and color_temp for each
+ * milight/commands/remote/type/group topic is sent, so dragging a slider or colour picker costs one radio packet per
+ * globe instead of one per UI event. Anything that is not a plain state change is a barrier and is never merged across.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class CommandCoalescer {
+    public static final int UNSET = -1;
+    public static final int STATE_OFF = 0;
+    public static final int STATE_ON = 1;
+
+    private final ConcurrentHashMap<String, PendingState> pending = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * Merges a state change into the command already queued for this topic, with the priority its fields give it.
+     *
+     * @return a new command that must be queued, or null if the change was merged into one that is still waiting.
+     */
+    public @Nullable OutgoingCommand coalesce(String topic, int state, int level, int hue, int saturation,
+            int colourTemp) {
+        return coalesce(topic, state, level, hue, saturation, colourTemp, CommandPriority.EFFECT);
+    }
+
+    /**
+     * Merges a state change into the command already queued for this topic. The command is served at least as
+     * urgently as the priority given, or the one its merged fields give it if that is more urgent.
+     *
+     * @return a new command that must be queued, or null if the change was merged into one that is still waiting.
+     */
+    public @Nullable OutgoingCommand coalesce(String topic, int state, int level, int hue, int saturation,
+            int colourTemp, CommandPriority priority) {
+        while (true) {
+            PendingState queued = pending.get(topic);
+            if (queued != null && queued.merge(state, level, hue, saturation, colourTemp, priority)) {
+                coalescedCount.incrementAndGet();
+                return null;
+            }
+            PendingState fresh = new PendingState();
+            fresh.merge(state, level, hue, saturation, colourTemp, priority);
+            boolean stored = (queued == null) ? pending.putIfAbsent(topic, fresh) == null
+                    : pending.replace(topic, queued, fresh);
+            if (stored) {
+                return new OutgoingCommand(topic, fresh, System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * Stops any later state changes for this topic merging into a command that was queued before the barrier.
+     */
+    public void barrier(String topic) {
+        PendingState queued = pending.remove(topic);
+        if (queued != null) {
+            queued.seal();
+        }
+    }
+
+    /**
+     * Number of state changes that did not need their own MQTT message.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public void clear() {
+        pending.clear();
+    }
+
+    /**
+     * The merged fields of one queued state command. Fields that are {@link #UNSET} are left out of the payload.
+     */
+    public static final class PendingState {
+        private int state = UNSET;
+        private int level = UNSET;
+        private int hue = UNSET;
+        private int saturation = UNSET;
+        private int colourTemp = UNSET;
+        private CommandPriority priority = CommandPriority.EFFECT;
+        private boolean sealed = false;
+
+        synchronized boolean merge(int newState, int newLevel, int newHue, int newSaturation, int newColourTemp,
+                CommandPriority newPriority) {
+            if (sealed) {
+                return false;
+            }
+            priority = CommandPriority.mostUrgent(priority, newPriority);
+            if (newState == STATE_OFF) {
+                // Off wins over everything that was waiting, the hub only needs to hear the globe is going off.
+                state = STATE_OFF;
+                level = hue = saturation = colourTemp = UNSET;
+                return true;
+            }
+            if (newState != UNSET) {
+                state = newState;
+            } else if (state == STATE_OFF) {
+                // A level or colour sent after an off that is still waiting turns the globe back on.
+                state = STATE_ON;
+            }
+            if (newLevel != UNSET) {
+                level = newLevel;
+            }
+            if (newHue != UNSET || newSaturation != UNSET) {
+                // Moving to colour mode, an older white temperature would switch the globe back to white.
+                hue = (newHue != UNSET) ? newHue : hue;
+                saturation = (newSaturation != UNSET) ? newSaturation : saturation;
+                colourTemp = UNSET;
+            }
+            if (newColourTemp != UNSET) {
+                colourTemp = newColourTemp;
+                hue = saturation = UNSET;
+            }
+            return true;
+        }
+
+        synchronized void seal() {
+            sealed = true;
+        }
+
+        synchronized CommandPriority getPriority() {
+            return CommandPriority.mostUrgent(priority,
+                    CommandPriority.ofState(state, level, hue, saturation, colourTemp));
+        }
+
+        /**
+         * Seals the state so later changes start a new command, and returns the payload to publish.
+         */
+        synchronized byte[] take() {
+            sealed = true;
+            return CommandEncoder.encodeState(state, level, hue, saturation, colourTemp);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.openhab.binding.espmilighthub.internal.CommandCoalescer.UNSET;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link CommandDebouncer} thins out the stream of level and colour changes a slider or colour wheel sends for a
+ * globe. The first change of a burst is passed on straight away, the ones after it are merged, and the latest is passed
+ * on once no change has arrived for the window. While the slider keeps moving the latest value is still passed on at
+ * least every max hold time, so the globe follows along.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class CommandDebouncer {
+
+    /**
+     * Receives the state changes that make it through.
+     */
+    public interface Sink {
+        void forward(String topic, int state, int level, int hue, int saturation, int colourTemp);
+    }
+
+    private final ConcurrentHashMap<String, Burst> bursts = new ConcurrentHashMap<String, Burst>();
+    private final ScheduledExecutorService scheduler;
+    private final Sink sink;
+    private final long windowNanos;
+    private final long maxHoldNanos;
+    private final AtomicLong debouncedCount = new AtomicLong();
+
+    public CommandDebouncer(ScheduledExecutorService scheduler, Sink sink, long windowNanos, long maxHoldNanos) {
+        this.scheduler = scheduler;
+        this.sink = sink;
+        this.windowNanos = windowNanos;
+        this.maxHoldNanos = Math.max(windowNanos, maxHoldNanos);
+    }
+
+    /**
+     * Passes the change on now or holds it as the latest value of a burst. A window of 0 passes everything on.
+     */
+    public void submit(String topic, int state, int level, int hue, int saturation, int colourTemp) {
+        if (windowNanos <= 0) {
+            sink.forward(topic, state, level, hue, saturation, colourTemp);
+            return;
+        }
+        while (true) {
+            Burst burst = bursts.get(topic);
+            if (burst == null) {
+                Burst started = new Burst(topic);
+                if (bursts.putIfAbsent(topic, started) == null) {
+                    started.start(state, level, hue, saturation, colourTemp);
+                    return;
+                }
+                continue;
+            }
+            if (burst.add(state, level, hue, saturation, colourTemp)) {
+                return;
+            }
+            // The burst ended while this change arrived, start a new one.
+        }
+    }
+
+    /**
+     * Passes on anything held for the globe, call before queueing a command that must not overtake it.
+     */
+    public void flush(String topic) {
+        Burst burst = bursts.get(topic);
+        if (burst != null) {
+            burst.end();
+        }
+    }
+
+    /**
+     * Number of changes that were merged into a later one instead of being sent.
+     */
+    public long getDebouncedCount() {
+        return debouncedCount.get();
+    }
+
+    /**
+     * Passes on everything held for every globe and cancels the timers, so nothing is forwarded after this returns
+     * unless more changes are submitted.
+     */
+    public void flushAll() {
+        for (Burst burst : bursts.values()) {
+            burst.end();
+        }
+    }
+
+    /**
+     * Drops everything held for every globe and cancels the timers.
+     */
+    public void clear() {
+        for (Burst burst : bursts.values()) {
+            burst.cancel();
+        }
+        bursts.clear();
+    }
+
+    private final class Burst implements Runnable {
+        private final String topic;
+        private boolean ended = false;
+        private boolean holding = false;
+        private @Nullable ScheduledFuture<?> timer;
+        private long lastChangeNanos;
+        private long lastForwardNanos;
+        private int state = UNSET;
+        private int level = UNSET;
+        private int hue = UNSET;
+        private int saturation = UNSET;
+        private int colourTemp = UNSET;
+
+        Burst(String topic) {
+            this.topic = topic;
+        }
+
+        synchronized void start(int newState, int newLevel, int newHue, int newSaturation, int newColourTemp) {
+            long now = System.nanoTime();
+            lastChangeNanos = now;
+            lastForwardNanos = now;
+            sink.forward(topic, newState, newLevel, newHue, newSaturation, newColourTemp);
+            timer = scheduler.schedule(this, windowNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return false if the burst has ended and the change was not taken.
+         */
+        synchronized boolean add(int newState, int newLevel, int newHue, int newSaturation, int newColourTemp) {
+            if (ended) {
+                return false;
+            }
+            if (holding) {
+                debouncedCount.incrementAndGet();
+            }
+            merge(newState, newLevel, newHue, newSaturation, newColourTemp);
+            holding = true;
+            long now = System.nanoTime();
+            lastChangeNanos = now;
+            if (now - lastForwardNanos >= maxHoldNanos) {
+                forwardHeld(now);
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (ended) {
+                return;
+            }
+            long quiet = System.nanoTime() - lastChangeNanos;
+            if (quiet < windowNanos) {
+                timer = scheduler.schedule(this, windowNanos - quiet, TimeUnit.NANOSECONDS);
+                return;
+            }
+            end();
+        }
+
+        synchronized void end() {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            bursts.remove(topic, this);
+            stopTimer();
+            if (holding) {
+                forwardHeld(System.nanoTime());
+            }
+        }
+
+        synchronized void cancel() {
+            ended = true;
+            bursts.remove(topic, this);
+            stopTimer();
+            holding = false;
+        }
+
+        private void stopTimer() {
+            ScheduledFuture<?> pending = timer;
+            if (pending != null) {
+                pending.cancel(false);
+                timer = null;
+            }
+        }
+
+        private void merge(int newState, int newLevel, int newHue, int newSaturation, int newColourTemp) {
+            if (newState != UNSET) {
+                state = newState;
+            }
+            if (newLevel != UNSET) {
+                level = newLevel;
+            }
+            if (newHue != UNSET || newSaturation != UNSET) {
+                hue = (newHue != UNSET) ? newHue : hue;
+                saturation = (newSaturation != UNSET) ? newSaturation : saturation;
+                colourTemp = UNSET;
+            }
+            if (newColourTemp != UNSET) {
+                colourTemp = newColourTemp;
+                hue = saturation = UNSET;
+            }
+        }
+
+        private void forwardHeld(long now) {
+            sink.forward(topic, state, level, hue, saturation, colourTemp);
+            state = level = hue = saturation = colourTemp = UNSET;
+            holding = false;
+            lastForwardNanos = now;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.openhab.binding.espmilighthub.internal.CommandCoalescer.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link CommandEncoder} writes the JSON payloads sent to the hub straight into a byte array of the exact size,
+ * using fragments that are encoded once, so sending a command does not build any Strings. Payloads that never change,
+ * such as the hub's commands, are encoded once and shared, so arrays returned here must never be modified.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public final class CommandEncoder {
+
+    /**
+     * The commands the hub accepts in {"command":"..."}.
+     */
+    public enum HubCommand {
+        SET_WHITE("set_white", CommandPriority.COLOUR),
+        NIGHT_MODE("night_mode", CommandPriority.SWITCH),
+        NEXT_MODE("next_mode", CommandPriority.EFFECT),
+        PREVIOUS_MODE("previous_mode", CommandPriority.EFFECT),
+        MODE_SPEED_UP("mode_speed_up", CommandPriority.EFFECT),
+        MODE_SPEED_DOWN("mode_speed_down", CommandPriority.EFFECT),
+        LEVEL_UP("level_up", CommandPriority.LEVEL),
+        LEVEL_DOWN("level_down", CommandPriority.LEVEL),
+        TEMPERATURE_UP("temperature_up", CommandPriority.COLOUR),
+        TEMPERATURE_DOWN("temperature_down", CommandPriority.COLOUR),
+        TOGGLE("toggle", CommandPriority.SWITCH),
+        PAIR("pair", CommandPriority.EFFECT),
+        UNPAIR("unpair", CommandPriority.EFFECT);
+
+        private static final HubCommand[] COMMANDS = values();
+
+        private final String id;
+        private final byte[] payload;
+        private final CommandPriority priority;
+
+        private HubCommand(String id, CommandPriority priority) {
+            this.id = id;
+            this.payload = utf8("{\"command\":\"" + id + "\"}");
+            this.priority = priority;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public CommandPriority getPriority() {
+            return priority;
+        }
+
+        public static @Nullable HubCommand fromId(String id) {
+            for (HubCommand command : COMMANDS) {
+                if (command.id.equals(id)) {
+                    return command;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** {"state":"ON","level":0} which drops the globe to its lowest level before it is turned off. */
+    public static final byte[] ON_AT_LEVEL_0 = utf8("{\"state\":\"ON\",\"level\":0}");
+
+    private static final byte[] STATE_ON_FIELD = utf8("\"state\":\"ON\"");
+    private static final byte[] STATE_OFF_FIELD = utf8("\"state\":\"OFF\"");
+    private static final byte[] LEVEL_FIELD = utf8("\"level\":");
+    private static final byte[] HUE_FIELD = utf8("\"hue\":");
+    private static final byte[] SATURATION_FIELD = utf8("\"saturation\":");
+    private static final byte[] COLOUR_TEMP_FIELD = utf8("\"color_temp\":");
+    private static final byte[] MODE_START = utf8("{\"mode\":\"");
+    private static final byte[] COMMAND_START = utf8("{\"command\":\"");
+    private static final byte[] STRING_END = utf8("\"}");
+
+    private CommandEncoder() {
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes a state change, fields that are {@link CommandCoalescer#UNSET} are left out. The fields are always in
+     * the order state, level, hue, saturation, color_temp.
+     */
+    public static byte[] encodeState(int state, int level, int hue, int saturation, int colourTemp) {
+        byte[] stateField = state == UNSET ? null : (state == STATE_ON ? STATE_ON_FIELD : STATE_OFF_FIELD);
+        int fields = 0;
+        int length = 2;
+        if (stateField != null) {
+            length += stateField.length;
+            fields++;
+        }
+        length += fieldLength(LEVEL_FIELD, level);
+        length += fieldLength(HUE_FIELD, hue);
+        length += fieldLength(SATURATION_FIELD, saturation);
+        length += fieldLength(COLOUR_TEMP_FIELD, colourTemp);
+        fields += (level != UNSET ? 1 : 0) + (hue != UNSET ? 1 : 0) + (saturation != UNSET ? 1 : 0)
+                + (colourTemp != UNSET ? 1 : 0);
+        if (fields > 1) {
+            length += fields - 1;
+        }
+
+        byte[] payload = new byte[length];
+        payload[0] = '{';
+        int pos = 1;
+        if (stateField != null) {
+            pos = put(payload, pos, stateField);
+        }
+        pos = putField(payload, pos, LEVEL_FIELD, level);
+        pos = putField(payload, pos, HUE_FIELD, hue);
+        pos = putField(payload, pos, SATURATION_FIELD, saturation);
+        pos = putField(payload, pos, COLOUR_TEMP_FIELD, colourTemp);
+        payload[pos] = '}';
+        return payload;
+    }
+
+    /**
+     * @return the shared payload for the command.
+     */
+    public static byte[] encodeCommand(HubCommand command) {
+        return command.payload;
+    }
+
+    /**
+     * Encodes a command typed in by the user, commands the binding knows about use their shared payload.
+     */
+    public static byte[] encodeCommand(String command) {
+        HubCommand known = HubCommand.fromId(command);
+        if (known != null) {
+            return known.payload;
+        }
+        return encodeString(COMMAND_START, utf8(escape(command)));
+    }
+
+    /**
+     * Encodes {"mode":"n"} which starts one of the globe's built in scenes.
+     */
+    public static byte[] encodeMode(int mode) {
+        byte[] payload = new byte[MODE_START.length + digits(mode) + STRING_END.length];
+        int pos = put(payload, 0, MODE_START);
+        pos = putNumber(payload, pos, mode);
+        put(payload, pos, STRING_END);
+        return payload;
+    }
+
+    public static byte[] encodeMode(String mode) {
+        return encodeString(MODE_START, utf8(escape(mode)));
+    }
+
+    private static byte[] encodeString(byte[] start, byte[] value) {
+        byte[] payload = new byte[start.length + value.length + STRING_END.length];
+        int pos = put(payload, 0, start);
+        pos = put(payload, pos, value);
+        put(payload, pos, STRING_END);
+        return payload;
+    }
+
+    private static String escape(String text) {
+        if (text.indexOf('"') < 0 && text.indexOf('\\') < 0) {
+            return text;
+        }
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static int fieldLength(byte[] name, int value) {
+        return value == UNSET ? 0 : name.length + digits(value);
+    }
+
+    private static int putField(byte[] payload, int pos, byte[] name, int value) {
+        if (value == UNSET) {
+            return pos;
+        }
+        if (pos > 1) {
+            payload[pos++] = ',';
+        }
+        pos = put(payload, pos, name);
+        return putNumber(payload, pos, value);
+    }
+
+    private static int put(byte[] payload, int pos, byte[] fragment) {
+        System.arraycopy(fragment, 0, payload, pos, fragment.length);
+        return pos + fragment.length;
+    }
+
+    private static int digits(int value) {
+        if (value < 0) {
+            return value == Integer.MIN_VALUE ? 11 : 1 + digits(-value);
+        }
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private static int putNumber(byte[] payload, int pos, int value) {
+        if (value == Integer.MIN_VALUE) {
+            return put(payload, pos, utf8(Integer.toString(value)));
+        }
+        int end = pos + digits(value);
+        int remaining = value;
+        if (remaining < 0) {
+            payload[pos] = '-';
+            remaining = -remaining;
+        }
+        int index = end;
+        do {
+            payload[--index] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        return end;
+    }
+}
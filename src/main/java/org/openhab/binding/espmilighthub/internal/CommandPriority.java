@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.openhab.binding.espmilighthub.internal.CommandEncoder.HubCommand;
+
+/**
+ * The {@link CommandPriority} enum decides which globe the {@link CommandSender} serves first when several are waiting,
+ * most urgent first. Commands for the same globe are always sent in the order they were queued.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public enum CommandPriority {
+    /** Turning a globe on or off, or into night mode. */
+    SWITCH,
+    /** Changing only the brightness. */
+    LEVEL,
+    /** Changing the colour, colour temperature or going back to white. */
+    COLOUR,
+    /** Disco modes and the commands from the bulbcommand channel. */
+    EFFECT;
+
+    /**
+     * Works out the priority of a state change from the fields it sets, {@link CommandCoalescer#UNSET} fields are not
+     * set. Turning a globe off is always a switch. Sliders and colour pickers send state ON with every change so the
+     * globe lights up, an ON with a level or colour ranks by that, callers that are switching the globe on pass
+     * {@link #SWITCH} themselves.
+     */
+    public static CommandPriority ofState(int state, int level, int hue, int saturation, int colourTemp) {
+        if (state == CommandCoalescer.STATE_OFF) {
+            return SWITCH;
+        }
+        if (hue != CommandCoalescer.UNSET || saturation != CommandCoalescer.UNSET
+                || colourTemp != CommandCoalescer.UNSET) {
+            return COLOUR;
+        }
+        if (level != CommandCoalescer.UNSET) {
+            return LEVEL;
+        }
+        return SWITCH;
+    }
+
+    /**
+     * @return whichever of the two is served first.
+     */
+    public static CommandPriority mostUrgent(CommandPriority first, CommandPriority second) {
+        return first.ordinal() <= second.ordinal() ? first : second;
+    }
+
+    /**
+     * Works out the priority of a command typed in by the user, commands the binding does not know about are effects
+     * unless they turn the globe on or off.
+     */
+    public static CommandPriority ofCommand(String command) {
+        HubCommand known = HubCommand.fromId(command);
+        if (known != null) {
+            return known.getPriority();
+        }
+        if ("on".equalsIgnoreCase(command) || "off".equalsIgnoreCase(command)) {
+            return SWITCH;
+        }
+        return EFFECT;
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link CommandRingBuffer} is a bounded, lock-free FIFO used to pass MQTT messages between the threads of the
+ * binding. Any number of threads may offer and poll at once; besides the consumers, producers poll too when
+ * {@link OverflowPolicy#DROP_OLDEST} makes room. All slots are allocated up front so adding an element never
+ * allocates, and each slot carries a sequence number so a producer can never overwrite an element a consumer has not
+ * taken yet.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class CommandRingBuffer<E> {
+
+    /**
+     * What to do when an element is offered and every slot is already in use.
+     */
+    public enum OverflowPolicy {
+        /** Throw away the oldest queued element to make room, as the newest command is the one the user wants. */
+        DROP_OLDEST,
+        /** Keep the queue as it is and reject the element being offered. */
+        DROP_NEWEST
+    }
+
+    private final int mask;
+    private final AtomicReferenceArray<@Nullable E> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicInteger heldOutside = new AtomicInteger();
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * Told about every element the {@link OverflowPolicy} throws away.
+     */
+    public interface DropListener<E> {
+        void dropped(E element);
+    }
+
+    public CommandRingBuffer(int requestedCapacity, OverflowPolicy overflowPolicy) {
+        int capacity = 2;
+        while (capacity < requestedCapacity && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Adds an element to the end of the queue, applying the {@link OverflowPolicy} if the queue is full. Under
+     * {@link OverflowPolicy#DROP_OLDEST} other producers can take the slot freed for this element, so one offer may
+     * have to throw away several elements; each of them is handed to the listener.
+     *
+     * @return true if the element was queued, false if it was the one thrown away.
+     */
+    public boolean offer(E element, DropListener<? super E> listener) {
+        while (!tryOffer(element)) {
+            if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                dropped.incrementAndGet();
+                listener.dropped(element);
+                return false;
+            }
+            E evicted = poll();
+            if (evicted != null) {
+                dropped.incrementAndGet();
+                listener.dropped(evicted);
+            } else if (!tryOffer(element)) {
+                // Nothing left to evict, the elements held outside take up the whole capacity.
+                dropped.incrementAndGet();
+                listener.dropped(element);
+                return false;
+            } else {
+                return true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets the number of elements that were polled but still count against the capacity, such as commands a consumer
+     * holds until they can be sent, so the queue and the consumer together never hold more than the capacity.
+     */
+    public void setHeldOutside(int count) {
+        heldOutside.set(count);
+    }
+
+    private boolean tryOffer(E element) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (position - head.get() + heldOutside.get() > mask) {
+                    return false; // the slot is free but the elements held outside use up the capacity
+                }
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, element);
+                    sequences.set(index, position + 1); // publishes the element to the consumer
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false; // slot still holds an element from the last lap, so the queue is full
+            } else {
+                position = tail.get(); // another producer claimed this slot first
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the oldest element, or null if the queue is empty.
+     */
+    public @Nullable E poll() {
+        long position = head.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    E element = slots.get(index);
+                    slots.lazySet(index, null);
+                    sequences.set(index, position + mask + 1); // hands the slot back to the producers
+                    return element;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int size() {
+        long size = tail.get() - head.get();
+        if (size < 0) {
+            return 0;
+        }
+        return (int) Math.min(size, mask + 1);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Total number of elements that were thrown away because the queue was full.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public void clear() {
+        while (poll() != null) {
+            ;
+        }
+    }
+}
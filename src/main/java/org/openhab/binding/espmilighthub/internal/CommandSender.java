@@ -0,0 +1,286 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link CommandSender} runs on its own thread and sends the outgoing queue to the MQTT broker. It sleeps until a
+ * command is queued and then paces the packets two ways: DELAY_BETWEEN_MQTT between any two packets, and
+ * DELAY_BETWEEN_SAME_GLOBE between two packets for the same globe. Commands are kept in order for each globe, but a
+ * globe that has to wait does not hold up the others. When several globes are ready, the one whose next command has the
+ * most urgent {@link CommandPriority} goes first, and globes of the same priority take turns. A command that has waited
+ * longer than a second is treated as urgent whatever its priority, so a stream of colour changes can delay a disco mode
+ * but never starve it. Publishing does not wait for the broker, the sender only stops when the publisher's window of
+ * unacknowledged messages is full. The commands waiting their turn count against the capacity of the queue, so the
+ * queue's overflow policy applies to everything the sender has not sent yet.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class CommandSender implements Runnable {
+
+    /**
+     * Used by the sender to reach the MQTT broker.
+     */
+    public interface Publisher {
+        boolean isConnected();
+
+        /**
+         * Returns true while too many messages are waiting for the broker to acknowledge them, call
+         * {@link CommandSender#wake()} when one is acknowledged.
+         */
+        boolean isFull();
+
+        void publish(String topic, byte[] payload);
+    }
+
+    private static final long DISCONNECTED_RECHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long STARVATION_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Logger logger = LoggerFactory.getLogger(CommandSender.class);
+    private final CommandRingBuffer<OutgoingCommand> queue;
+    private final Publisher publisher;
+    private final TokenBucketPacer pacer;
+    private volatile long sameGlobeGapNanos;
+    private volatile boolean running = true;
+    private volatile boolean waiting = false;
+    private volatile @Nullable Thread thread;
+
+    // Only used by the sender thread.
+    private final HashMap<String, GlobeLane> lanes = new HashMap<>();
+    private final ArrayDeque<GlobeLane> activeLanes = new ArrayDeque<>();
+    private int laneCommands = 0;
+    private final LatencyHistogram queueLatency = new LatencyHistogram();
+    // Only written by the sender thread.
+    private volatile long sentCount = 0;
+
+    public CommandSender(CommandRingBuffer<OutgoingCommand> queue, Publisher publisher, long globalGapNanos,
+            long sameGlobeGapNanos) {
+        this.queue = queue;
+        this.publisher = publisher;
+        this.pacer = new TokenBucketPacer(globalGapNanos, 1);
+        this.sameGlobeGapNanos = sameGlobeGapNanos;
+    }
+
+    /**
+     * Lets the sender know there is work to do, call after queueing a command or when the broker connects.
+     */
+    public void wake() {
+        Thread sender = thread;
+        if (waiting && sender != null) {
+            LockSupport.unpark(sender);
+        }
+    }
+
+    public void stop() {
+        running = false;
+        Thread sender = thread;
+        if (sender != null) {
+            LockSupport.unpark(sender);
+        }
+    }
+
+    public void setGlobalGapNanos(long nanos) {
+        pacer.setIntervalNanos(nanos);
+    }
+
+    public void setSameGlobeGapNanos(long nanos) {
+        sameGlobeGapNanos = nanos;
+    }
+
+    /**
+     * Number of commands taken off the queue that are waiting their turn to be sent.
+     */
+    public int getWaitingCount() {
+        return laneCommands;
+    }
+
+    /**
+     * How long commands waited between being queued and being handed to the MQTT client.
+     */
+    public LatencyHistogram getQueueLatency() {
+        return queueLatency;
+    }
+
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        try {
+            while (running && !Thread.currentThread().isInterrupted()) {
+                if (!publisher.isConnected()) {
+                    // Leave commands in the bounded queue so its overflow policy applies while the broker is away.
+                    sleep(DISCONNECTED_RECHECK_NANOS, false);
+                    continue;
+                }
+                if (publisher.isFull()) {
+                    waitForWindow();
+                    continue;
+                }
+                moveQueueToLanes();
+                long now = System.nanoTime();
+                long waitNanos = pacer.nanosUntilAvailable(now);
+                if (waitNanos > 0) {
+                    sleep(waitNanos, false);
+                    continue;
+                }
+                waitNanos = sendNextReady(now);
+                if (waitNanos != 0) {
+                    sleep(waitNanos, true);
+                }
+            }
+        } finally {
+            queue.setHeldOutside(0);
+            thread = null;
+        }
+    }
+
+    private void moveQueueToLanes() {
+        while (laneCommands < queue.capacity()) {
+            // Counted before the poll so the slot it frees is never offered to a producer uncounted.
+            queue.setHeldOutside(laneCommands + 1);
+            OutgoingCommand command = queue.poll();
+            if (command == null) {
+                queue.setHeldOutside(laneCommands);
+                return;
+            }
+            GlobeLane lane = lanes.get(command.getTopic());
+            if (lane == null) {
+                lane = new GlobeLane();
+                lanes.put(command.getTopic(), lane);
+            }
+            if (lane.commands.isEmpty()) {
+                activeLanes.addLast(lane);
+            }
+            lane.commands.addLast(command);
+            laneCommands++;
+        }
+    }
+
+    /**
+     * Sends the most urgent command whose globe is not waiting on DELAY_BETWEEN_SAME_GLOBE.
+     *
+     * @return 0 if a command was sent, how long until a globe is ready if all are waiting, or -1 if there is nothing
+     *         to send.
+     */
+    private long sendNextReady(long now) {
+        long gap = sameGlobeGapNanos;
+        long earliest = Long.MAX_VALUE;
+        @Nullable
+        GlobeLane best = null;
+        int bestRank = Integer.MAX_VALUE;
+        for (GlobeLane lane : activeLanes) {
+            long ready = lane.lastSentNanos + gap - now;
+            if (lane.neverSent || ready <= 0) {
+                int rank = rankOf(lane.commands.getFirst(), now);
+                if (rank < bestRank) {
+                    best = lane;
+                    bestRank = rank;
+                    if (rank == 0) {
+                        break;
+                    }
+                }
+            } else {
+                earliest = Math.min(earliest, ready);
+            }
+        }
+        if (best == null) {
+            return earliest == Long.MAX_VALUE ? -1 : earliest;
+        }
+        activeLanes.remove(best);
+        OutgoingCommand command = best.commands.removeFirst();
+        laneCommands--;
+        queue.setHeldOutside(laneCommands);
+        best.lastSentNanos = now;
+        best.neverSent = false;
+        if (!best.commands.isEmpty()) {
+            activeLanes.addLast(best); // round robin so a busy globe takes turns with the rest
+        }
+        pacer.consume(now);
+        send(command, now);
+        return 0;
+    }
+
+    private static int rankOf(OutgoingCommand command, long now) {
+        if (now - command.getEnqueuedNanos() > STARVATION_NANOS) {
+            return 0;
+        }
+        return command.getPriority().ordinal();
+    }
+
+    private void send(OutgoingCommand command, long now) {
+        try {
+            publisher.publish(command.getTopic(), command.takePayload());
+            queueLatency.record(now - command.getEnqueuedNanos());
+            sentCount++;
+            logger.trace("MQTT message just sent, there are now {} more messages in the queue",
+                    laneCommands + queue.size());
+        } catch (RuntimeException e) {
+            logger.warn("Could not send the MQTT message for {}:{}", command.getTopic(), e.getMessage());
+        }
+    }
+
+    /**
+     * Parks the sender until it is woken or the time runs out, a negative time waits until woken.
+     *
+     * @param newWorkHelps true if a newly queued command could be sent before the time runs out.
+     */
+    private void sleep(long nanos, boolean newWorkHelps) {
+        waiting = true;
+        try {
+            // Checked after setting waiting so a command queued before this point is never slept through.
+            if (newWorkHelps && !queue.isEmpty() && laneCommands < queue.capacity()) {
+                return;
+            }
+            if (nanos < 0) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, nanos);
+            }
+        } finally {
+            waiting = false;
+        }
+    }
+
+    private void waitForWindow() {
+        waiting = true;
+        try {
+            // Checked after setting waiting so an acknowledgement that arrives before this point is never slept
+            // through, the recheck is a backstop in case the broker never answers.
+            if (publisher.isFull()) {
+                LockSupport.parkNanos(this, DISCONNECTED_RECHECK_NANOS);
+            }
+        } finally {
+            waiting = false;
+        }
+    }
+
+    private static class GlobeLane {
+        final ArrayDeque<OutgoingCommand> commands = new ArrayDeque<>();
+        long lastSentNanos;
+        boolean neverSent = true;
+    }
+}
@@ -0,0 +1,256 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link EchoTracker} matches each command published on milight/commands with the state the hub publishes on
+ * milight/states once it has sent the command over the radio. The time between the two is recorded per globe and for
+ * the whole hub, and commands that get no state back within the timeout are counted as missed so globes with the wrong
+ * remote code or type, or a hub that cannot keep up, can be found.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class EchoTracker {
+    /** Commands older than this many waiting for the same globe are counted as missed. */
+    private static final int MAX_PENDING = 16;
+
+    private final ConcurrentHashMap<String, GlobeEcho> globes = new ConcurrentHashMap<String, GlobeEcho>();
+    private final LatencyHistogram roundTrip = new LatencyHistogram();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong missedCount = new AtomicLong();
+    private volatile long timeoutNanos;
+    private volatile @Nullable Listener listener;
+
+    /**
+     * Told about every round trip and missed echo as they happen.
+     */
+    public interface Listener {
+        void roundTrip(long nanos, long now);
+
+        void missed(int count, long now);
+    }
+
+    /**
+     * The echoes of the commands sent to one globe.
+     */
+    public final class GlobeEcho {
+        private final String commandTopic;
+        private final LatencyHistogram globeRoundTrip = new LatencyHistogram();
+        // Send times of the commands still waiting for a state, oldest first.
+        private final long[] sentNanos = new long[MAX_PENDING];
+        private int first = 0;
+        private int waiting = 0;
+        private volatile long lastRoundTripNanos = -1;
+        private volatile long echoedCount = 0;
+        private volatile long missedCount = 0;
+        private volatile boolean flagged = false;
+
+        GlobeEcho(String commandTopic) {
+            this.commandTopic = commandTopic;
+        }
+
+        public String getCommandTopic() {
+            return commandTopic;
+        }
+
+        public LatencyHistogram getRoundTrip() {
+            return globeRoundTrip;
+        }
+
+        /**
+         * @return the last round trip in nanoseconds, or -1 if no command has been echoed yet.
+         */
+        public long getLastRoundTripNanos() {
+            return lastRoundTripNanos;
+        }
+
+        public long getEchoedCount() {
+            return echoedCount;
+        }
+
+        public long getMissedCount() {
+            return missedCount;
+        }
+
+        /**
+         * True once a command has gone without a state for longer than the timeout, until the next state arrives.
+         */
+        public boolean isFlagged() {
+            return flagged;
+        }
+
+        synchronized void sent(long now) {
+            if (waiting == MAX_PENDING) {
+                missed(1, now);
+                first = (first + 1) % MAX_PENDING;
+                waiting--;
+                pending.decrementAndGet();
+            }
+            sentNanos[(first + waiting) % MAX_PENDING] = now;
+            waiting++;
+            pending.incrementAndGet();
+        }
+
+        synchronized boolean echoed(long now) {
+            if (waiting == 0) {
+                return false;
+            }
+            long nanos = Math.max(0, now - sentNanos[first]);
+            first = (first + 1) % MAX_PENDING;
+            waiting--;
+            pending.decrementAndGet();
+            globeRoundTrip.record(nanos);
+            roundTrip.record(nanos);
+            lastRoundTripNanos = nanos;
+            echoedCount++;
+            flagged = false;
+            Listener current = listener;
+            if (current != null) {
+                current.roundTrip(nanos, now);
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the globe has just been flagged.
+         */
+        synchronized boolean expire(long now, long timeout) {
+            int expired = 0;
+            while (waiting > 0 && now - sentNanos[first] > timeout) {
+                first = (first + 1) % MAX_PENDING;
+                waiting--;
+                expired++;
+            }
+            if (expired == 0) {
+                return false;
+            }
+            pending.addAndGet(-expired);
+            missed(expired, now);
+            if (flagged) {
+                return false;
+            }
+            flagged = true;
+            return true;
+        }
+
+        private void missed(int count, long now) {
+            missedCount += count;
+            EchoTracker.this.missedCount.addAndGet(count);
+            Listener current = listener;
+            if (current != null) {
+                current.missed(count, now);
+            }
+        }
+    }
+
+    public EchoTracker(long timeoutNanos) {
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    public void setTimeoutNanos(long nanos) {
+        timeoutNanos = nanos;
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Call once the command has been handed to the MQTT client.
+     */
+    public void commandSent(String commandTopic, long now) {
+        GlobeEcho echo = globes.get(commandTopic);
+        if (echo == null) {
+            GlobeEcho added = new GlobeEcho(commandTopic);
+            echo = globes.putIfAbsent(commandTopic, added);
+            if (echo == null) {
+                echo = added;
+            }
+        }
+        echo.sent(now);
+    }
+
+    /**
+     * Call for every state from the hub. A state for a group answers that group's oldest command, or failing that a
+     * command sent to group 0 of the same remote, as the hub can answer those on each group.
+     */
+    public void stateReceived(GlobeKey globeKey, long now) {
+        if (pending.get() == 0) {
+            return;
+        }
+        GlobeEcho echo = globes.get(globeKey.getCommandTopic());
+        if (echo != null && echo.echoed(now)) {
+            return;
+        }
+        if (globeKey.getGroup() != 0) {
+            echo = globes.get(TopicCodec.commandTopic(globeKey.getRemoteCode(), globeKey.getGlobeType(), 0));
+            if (echo != null) {
+                echo.echoed(now);
+            }
+        }
+    }
+
+    /**
+     * Counts the commands that have waited longer than the timeout as missed.
+     *
+     * @return the globes that have just started missing states.
+     */
+    public List<GlobeEcho> expire(long now) {
+        List<GlobeEcho> flagged = new ArrayList<GlobeEcho>();
+        if (pending.get() == 0) {
+            return flagged;
+        }
+        long timeout = timeoutNanos;
+        for (GlobeEcho echo : globes.values()) {
+            if (echo.expire(now, timeout)) {
+                flagged.add(echo);
+            }
+        }
+        return flagged;
+    }
+
+    public @Nullable GlobeEcho get(String commandTopic) {
+        return globes.get(commandTopic);
+    }
+
+    public Iterable<GlobeEcho> all() {
+        return globes.values();
+    }
+
+    /**
+     * The round trips of every globe on the hub.
+     */
+    public LatencyHistogram getRoundTrip() {
+        return roundTrip;
+    }
+
+    public long getMissedCount() {
+        return missedCount.get();
+    }
+
+    public void clear() {
+        globes.clear();
+        pending.set(0);
+    }
+}
@@ -13,15 +13,371 @@
 
 package org.openhab.binding.espmilighthub.internal;
 
+import static org.openhab.binding.espmilighthub.EspMilightHubBindingConstants.*;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.smarthome.config.core.Configuration;
+import org.openhab.binding.espmilighthub.internal.CommandRingBuffer.OverflowPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
- * The {@link EspMilightHubConfiguration} class contains fields mapping thing configuration paramters.
+ * The {@link EspMilightHubConfiguration} class holds the bridge's settings, read once from the thing configuration
+ * when the bridge initializes or its configuration is changed. It is immutable, so the handlers can use a snapshot
+ * without any lookups or parsing and a change is seen by everything at once.
  *
  * @author Matthew Skinner - Initial contribution
  */
-public class EspMilightHubConfiguration {
+@NonNullByDefault
+public final class EspMilightHubConfiguration {
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+    public static final int DEFAULT_INBOUND_QUEUE_CAPACITY = 1024;
+    public static final int DEFAULT_INBOUND_MAX_BATCH = 64;
+    public static final int DEFAULT_INFLIGHT_WINDOW = 10;
+    public static final int DEFAULT_METRICS_INTERVAL = 60;
+    public static final int DEFAULT_ECHO_TIMEOUT = 2000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EspMilightHubConfiguration.class);
+
+    private final String mqttAddress;
+    private final @Nullable String mqttUserName;
+    private final @Nullable String mqttPassword;
+    private final @Nullable String hubIp;
+    private final String defaultCommand;
+    private final int triggerWhiteHue;
+    private final int triggerWhiteSat;
+    private final int favouriteWhite;
+    private final int autoCTempValue;
+    private final int delayBetweenMqtt;
+    private final int delayBetweenSameGlobe;
+    private final boolean oneTriggersNightMode;
+    private final boolean powerFailsToMinDim;
+    private final boolean levelFollowsColour;
+    private final int rgbwWhiteSatThreshold;
+    private final int queueCapacity;
+    private final OverflowPolicy queueOverflowPolicy;
+    private final int inboundQueueCapacity;
+    private final int inboundMaxBatch;
+    private final int inboundWorkers;
+    private final int inFlightWindow;
+    private final int metricsInterval;
+    private final int echoTimeout;
+    private final boolean adaptivePacing;
+    private final int adaptiveMinDelay;
+    private final int adaptiveMaxDelay;
+    private final int debounceWindow;
+    private final int debounceMaxHold;
+    private final boolean persistQueue;
+    private final int persistQueueSize;
+    private final int persistQueueTtl;
+    private final boolean stateSnapshot;
+    private final boolean subscribeThingsOnly;
+
+    private EspMilightHubConfiguration(Configuration config) {
+        mqttAddress = getString(config, CONFIG_MQTT_ADDRESS, "tcp://localhost:1883");
+        mqttUserName = getOptionalString(config, CONFIG_MQTT_USER_NAME);
+        mqttPassword = getOptionalString(config, CONFIG_MQTT_PASSWORD);
+        hubIp = getOptionalString(config, CONFIG_HUB_IP);
+        defaultCommand = getString(config, CONFIG_DEFAULT_COMMAND, "night_mode");
+        triggerWhiteHue = getInt(config, CONFIG_TRIGGER_WHITE_HUE, 35);
+        triggerWhiteSat = getInt(config, CONFIG_TRIGGER_WHITE_SAT, 32);
+        favouriteWhite = getInt(config, CONFIG_FAVOURITE_WHITE, 200);
+        // 0 turns the feature off.
+        autoCTempValue = getInt(config, CONFIG_AUTOCTEMP_MAXDIMMED_TEMPERATURE, 0);
+        delayBetweenMqtt = getInt(config, CONFIG_DELAY_BETWEEN_MQTT, 140);
+        delayBetweenSameGlobe = getInt(config, CONFIG_DELAY_BETWEEN_SAME_GLOBE, 250);
+        oneTriggersNightMode = getBoolean(config, CONFIG_1TRIGGERS_NIGHT_MODE, false);
+        powerFailsToMinDim = getBoolean(config, CONFIG_POWERFAILS_TO_MINDIM, false);
+        levelFollowsColour = getBoolean(config, CONFIG_LEVEL_FOLLOWS_COLOUR, true);
+        rgbwWhiteSatThreshold = getInt(config, CONFIG_RGBW_WHITEMODE_SAT_THRESHOLD, 12);
+        queueCapacity = getInt(config, CONFIG_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY);
+        queueOverflowPolicy = getOverflowPolicy(config);
+        inboundQueueCapacity = getInt(config, CONFIG_INBOUND_QUEUE_CAPACITY, DEFAULT_INBOUND_QUEUE_CAPACITY);
+        inboundMaxBatch = getInt(config, CONFIG_INBOUND_MAX_BATCH, DEFAULT_INBOUND_MAX_BATCH);
+        inboundWorkers = Math.max(1, Math.min(16, getInt(config, CONFIG_INBOUND_WORKERS, 1)));
+        inFlightWindow = Math.max(1, getInt(config, CONFIG_INFLIGHT_WINDOW, DEFAULT_INFLIGHT_WINDOW));
+        metricsInterval = Math.max(0, getInt(config, CONFIG_METRICS_INTERVAL, DEFAULT_METRICS_INTERVAL));
+        echoTimeout = Math.max(1, getInt(config, CONFIG_ECHO_TIMEOUT, DEFAULT_ECHO_TIMEOUT));
+        adaptivePacing = getBoolean(config, CONFIG_ADAPTIVE_PACING, false);
+        adaptiveMinDelay = Math.max(0, getInt(config, CONFIG_ADAPTIVE_MIN_DELAY, 20));
+        adaptiveMaxDelay = Math.max(adaptiveMinDelay, getInt(config, CONFIG_ADAPTIVE_MAX_DELAY, 500));
+        debounceWindow = Math.max(0, getInt(config, CONFIG_DEBOUNCE_WINDOW, 100));
+        debounceMaxHold = Math.max(debounceWindow, getInt(config, CONFIG_DEBOUNCE_MAX_HOLD, 400));
+        persistQueue = getBoolean(config, CONFIG_PERSIST_QUEUE, false);
+        persistQueueSize = Math.max(1, getInt(config, CONFIG_PERSIST_QUEUE_SIZE, 64));
+        persistQueueTtl = Math.max(0, getInt(config, CONFIG_PERSIST_QUEUE_TTL, 120));
+        stateSnapshot = getBoolean(config, CONFIG_STATE_SNAPSHOT, true);
+        subscribeThingsOnly = getBoolean(config, CONFIG_SUBSCRIBE_THINGS_ONLY, false);
+    }
+
+    /**
+     * Reads the settings, anything missing or not valid is replaced by its default.
+     */
+    public static EspMilightHubConfiguration from(Configuration config) {
+        return new EspMilightHubConfiguration(config);
+    }
+
+    private static @Nullable String getOptionalString(Configuration config, String name) {
+        Object value = config.get(name);
+        if (value == null || value.toString().isEmpty()) {
+            return null;
+        }
+        return value.toString();
+    }
+
+    private static String getString(Configuration config, String name, String defaultValue) {
+        String value = getOptionalString(config, name);
+        return value == null ? defaultValue : value;
+    }
+
+    private static int getInt(Configuration config, String name, int defaultValue) {
+        Object value = config.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        try {
+            return (int) Math.round(Double.parseDouble(value.toString().trim()));
+        } catch (NumberFormatException e) {
+            LOGGER.warn("{} '{}' is not a number, using {} instead.", name, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static boolean getBoolean(Configuration config, String name, boolean defaultValue) {
+        Object value = config.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        return Boolean.parseBoolean(value.toString().trim());
+    }
+
+    private static OverflowPolicy getOverflowPolicy(Configuration config) {
+        String value = getOptionalString(config, CONFIG_QUEUE_OVERFLOW_POLICY);
+        if (value == null) {
+            return OverflowPolicy.DROP_OLDEST;
+        }
+        try {
+            return OverflowPolicy.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("QUEUE_OVERFLOW_POLICY '{}' is not valid, using DROP_OLDEST.", value);
+            return OverflowPolicy.DROP_OLDEST;
+        }
+    }
+
+    /**
+     * Checks the settings that are only used when the bridge connects and builds its queues.
+     *
+     * @return true if the bridge has to be restarted to use the new settings.
+     */
+    public boolean needsRestart(EspMilightHubConfiguration newConfig) {
+        return !mqttAddress.equals(newConfig.mqttAddress) || !equal(mqttUserName, newConfig.mqttUserName)
+                || !equal(mqttPassword, newConfig.mqttPassword) || !equal(hubIp, newConfig.hubIp)
+                || queueCapacity != newConfig.queueCapacity || queueOverflowPolicy != newConfig.queueOverflowPolicy
+                || inboundQueueCapacity != newConfig.inboundQueueCapacity
+                || inboundMaxBatch != newConfig.inboundMaxBatch || inboundWorkers != newConfig.inboundWorkers
+                || inFlightWindow != newConfig.inFlightWindow
+                || metricsInterval != newConfig.metricsInterval || debounceWindow != newConfig.debounceWindow
+                || debounceMaxHold != newConfig.debounceMaxHold || persistQueue != newConfig.persistQueue
+                || persistQueueSize != newConfig.persistQueueSize || persistQueueTtl != newConfig.persistQueueTtl
+                || stateSnapshot != newConfig.stateSnapshot || subscribeThingsOnly != newConfig.subscribeThingsOnly;
+    }
+
+    /**
+     * @return true if the settings that decide the gap between packets have changed.
+     */
+    public boolean pacingChanged(EspMilightHubConfiguration newConfig) {
+        return delayBetweenMqtt != newConfig.delayBetweenMqtt || adaptivePacing != newConfig.adaptivePacing
+                || adaptiveMinDelay != newConfig.adaptiveMinDelay || adaptiveMaxDelay != newConfig.adaptiveMaxDelay;
+    }
+
+    private static boolean equal(@Nullable String first, @Nullable String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    public String getMqttAddress() {
+        return mqttAddress;
+    }
+
+    public @Nullable String getMqttUserName() {
+        return mqttUserName;
+    }
+
+    public @Nullable String getMqttPassword() {
+        return mqttPassword;
+    }
+
+    public @Nullable String getHubIp() {
+        return hubIp;
+    }
+
+    public String getDefaultCommand() {
+        return defaultCommand;
+    }
+
+    public int getTriggerWhiteHue() {
+        return triggerWhiteHue;
+    }
+
+    public int getTriggerWhiteSat() {
+        return triggerWhiteSat;
+    }
+
+    public int getFavouriteWhite() {
+        return favouriteWhite;
+    }
+
+    /**
+     * The colour temperature a globe fades to as it is dimmed, 0 if the feature is not used.
+     */
+    public int getAutoCTempValue() {
+        return autoCTempValue;
+    }
+
+    /**
+     * Milliseconds between any two MQTT messages.
+     */
+    public int getDelayBetweenMqtt() {
+        return delayBetweenMqtt;
+    }
+
+    /**
+     * Milliseconds between two MQTT messages to the same globe.
+     */
+    public int getDelayBetweenSameGlobe() {
+        return delayBetweenSameGlobe;
+    }
+
+    public boolean get1TriggersNightMode() {
+        return oneTriggersNightMode;
+    }
+
+    public boolean getPowerFailsToMinDim() {
+        return powerFailsToMinDim;
+    }
+
+    public boolean getLevelFollowsColour() {
+        return levelFollowsColour;
+    }
+
+    /**
+     * -1 if the feature is not used.
+     */
+    public int getRGBWhiteSatThreshold() {
+        return rgbwWhiteSatThreshold;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public OverflowPolicy getQueueOverflowPolicy() {
+        return queueOverflowPolicy;
+    }
+
+    public int getInboundQueueCapacity() {
+        return inboundQueueCapacity;
+    }
+
+    public int getInboundMaxBatch() {
+        return inboundMaxBatch;
+    }
+
+    /**
+     * Number of threads the incoming states are shared between, all states of a remote use the same thread.
+     */
+    public int getInboundWorkers() {
+        return inboundWorkers;
+    }
+
+    /**
+     * How many MQTT messages can be waiting for the broker to acknowledge them before the sender stops.
+     */
+    public int getInFlightWindow() {
+        return inFlightWindow;
+    }
+
+    /**
+     * Seconds between updates of the bridge's queue and latency channels, 0 turns the updates off.
+     */
+    public int getMetricsInterval() {
+        return metricsInterval;
+    }
+
+    /**
+     * Milliseconds to wait for the hub to publish a state after a command before counting the command as missed.
+     */
+    public int getEchoTimeout() {
+        return echoTimeout;
+    }
+
+    /**
+     * True to let the binding tune DELAY_BETWEEN_MQTT from the hub's echoes, between the min and max delays.
+     */
+    public boolean getAdaptivePacing() {
+        return adaptivePacing;
+    }
+
+    public int getAdaptiveMinDelay() {
+        return adaptiveMinDelay;
+    }
+
+    public int getAdaptiveMaxDelay() {
+        return adaptiveMaxDelay;
+    }
+
+    /**
+     * Milliseconds without a level or colour change before the latest one of a burst is sent, 0 sends every change.
+     */
+    public int getDebounceWindow() {
+        return debounceWindow;
+    }
+
+    /**
+     * The longest in milliseconds a level or colour change is held back while a slider keeps moving.
+     */
+    public int getDebounceMaxHold() {
+        return debounceMaxHold;
+    }
+
+    /**
+     * True to keep commands queued while the broker is offline in a file, so they survive a restart.
+     */
+    public boolean getPersistQueue() {
+        return persistQueue;
+    }
+
+    /**
+     * Size of the file in kilobytes.
+     */
+    public int getPersistQueueSize() {
+        return persistQueueSize;
+    }
+
+    /**
+     * Seconds a command kept in the file is still worth sending.
+     */
+    public int getPersistQueueTtl() {
+        return persistQueueTtl;
+    }
+
+    /**
+     * True to save the globes' last states to a file and show them straight away when openHAB starts.
+     */
+    public boolean getStateSnapshot() {
+        return stateSnapshot;
+    }
 
     /**
-     * Sample configuration parameter. Replace with you own.
+     * True to only subscribe to the states of remotes that have a globe thing, instead of every state on the broker.
      */
-    public String config1;
+    public boolean getSubscribeThingsOnly() {
+        return subscribeThingsOnly;
+    }
 }
@@ -87,28 +87,14 @@ public class EspMilightHubDiscoveryService extends AbstractDiscoveryService {
                 @Override
                 public void messageArrived(String topic, MqttMessage message) throws Exception {
 
-                    if (topic.contains("milight/states/")) {
+                    if (topic.startsWith(TopicCodec.STATES_PREFIX)) {
                         logger.debug("Discovery Service just recieved the following new Milight state:{}:{}", topic,
                                 message);
 
-                        String cutTopic = topic.replace("milight/states/", "");
-
-                        int index = cutTopic.indexOf("/");
-                        if (index != -1) // -1 means "not found"
-                        {
-                            String remoteCode = (cutTopic.substring(0, index)); // Store the remote code for use later
-                            cutTopic = topic.replace("milight/states/" + remoteCode + "/", "");
-
-                            index = cutTopic.indexOf("/");
-                            if (index != -1) // -1 means "not found"
-                            {
-                                String globeType = (cutTopic.substring(0, index));
-                                String remoteGroupID = (cutTopic.substring(++index, ++index));
-
-                                if (!remoteGroupID.matches("0")) { // It is not a thing if it is a Group of 0
-                                    newThingFound(globeType, remoteGroupID, remoteCode);
-                                }
-                            }
+                        GlobeKey globeKey = TopicCodec.parseStateTopic(topic);
+                        if (globeKey != null && globeKey.getGroup() != 0) { // It is not a thing if it is a Group of 0
+                            newThingFound(globeKey.getGlobeType().getId(), Integer.toString(globeKey.getGroup()),
+                                    globeKey.getRemoteCode());
                         }
                     }
                 }
@@ -0,0 +1,238 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.openhab.binding.espmilighthub.EspMilightHubBindingConstants.*;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.smarthome.core.library.types.DecimalType;
+import org.eclipse.smarthome.core.library.types.HSBType;
+import org.eclipse.smarthome.core.library.types.PercentType;
+import org.eclipse.smarthome.core.library.types.StringType;
+import org.eclipse.smarthome.core.thing.ChannelUID;
+import org.eclipse.smarthome.core.thing.ThingUID;
+import org.eclipse.smarthome.core.types.State;
+
+/**
+ * The {@link GlobeChannels} class is built by the bridge when a globe's handler initializes. It holds the globe's
+ * ChannelUIDs ready made, and shares the constant states between all globes, so processing a state from the hub does
+ * not need to build any identifiers. It also remembers the last state sent to each channel so an unchanged state can
+ * be skipped.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class GlobeChannels {
+    public static final StringType BULB_MODE_WHITE = new StringType("white");
+    public static final StringType BULB_MODE_COLOR = new StringType("color");
+    public static final StringType BULB_MODE_SCENE = new StringType("scene");
+    public static final StringType BULB_MODE_NIGHT = new StringType("night");
+    public static final DecimalType DISCO_MODE_NONE = new DecimalType(-1);
+
+    public static final int LEVEL = 0;
+    public static final int COLOUR = 1;
+    public static final int COLOUR_TEMPERATURE = 2;
+    public static final int DISCO_MODE = 3;
+    public static final int BULB_MODE = 4;
+    private static final int CHANNEL_COUNT = 5;
+
+    private static final int MAX_CACHED_DISCO_MODE = 15;
+    private static final PercentType[] PERCENTS = new PercentType[101];
+    private static final HSBType[] WHITES = new HSBType[101];
+    private static final DecimalType[] DISCO_MODES = new DecimalType[MAX_CACHED_DISCO_MODE + 1];
+
+    static {
+        DecimalType noHue = new DecimalType(0);
+        for (int i = 0; i <= 100; i++) {
+            PERCENTS[i] = new PercentType(i);
+            WHITES[i] = new HSBType(noHue, PercentType.ZERO, PERCENTS[i]);
+        }
+        for (int i = 0; i <= MAX_CACHED_DISCO_MODE; i++) {
+            DISCO_MODES[i] = new DecimalType(i);
+        }
+    }
+
+    private final ThingUID thingUID;
+    private final GlobeKey globeKey;
+    private final GlobeType globeType;
+    private final ChannelUID[] channels = new ChannelUID[CHANNEL_COUNT];
+    // Swapped for an empty array to forget everything, only the globe's inbound worker fills it in.
+    private volatile @Nullable State[] lastStates = new State[CHANNEL_COUNT];
+    // Everything the hub has said about the globe is kept in the bridge's store.
+    private final GlobeStateStore stateStore;
+    private final int stateSlot;
+
+    public GlobeChannels(ThingUID thingUID, GlobeKey globeKey, GlobeStateStore stateStore) {
+        this.thingUID = thingUID;
+        this.globeKey = globeKey;
+        this.stateStore = stateStore;
+        this.stateSlot = stateStore.slotFor(globeKey);
+        this.globeType = globeKey.getGlobeType();
+        channels[LEVEL] = new ChannelUID(thingUID, CHANNEL_LEVEL);
+        channels[COLOUR] = new ChannelUID(thingUID, CHANNEL_COLOUR);
+        channels[COLOUR_TEMPERATURE] = new ChannelUID(thingUID, CHANNEL_COLOURTEMP);
+        channels[DISCO_MODE] = new ChannelUID(thingUID, CHANNEL_DISCO_MODE);
+        channels[BULB_MODE] = new ChannelUID(thingUID, CHANNEL_BULB_MODE);
+    }
+
+    /**
+     * Returns a shared PercentType for 0 to 100, PercentType itself rejects anything outside that range.
+     */
+    public static PercentType percent(int value) {
+        if (value >= 0 && value <= 100) {
+            return PERCENTS[value];
+        }
+        return new PercentType(value);
+    }
+
+    /**
+     * Returns the colour the colour channel shows while the globe is using its white LEDs.
+     */
+    public static HSBType white(int level) {
+        if (level >= 0 && level <= 100) {
+            return WHITES[level];
+        }
+        return new HSBType(new DecimalType(0), PercentType.ZERO, new PercentType(level));
+    }
+
+    public static DecimalType discoMode(int mode) {
+        if (mode >= 0 && mode <= MAX_CACHED_DISCO_MODE) {
+            return DISCO_MODES[mode];
+        }
+        return new DecimalType(mode);
+    }
+
+    public ThingUID getThingUID() {
+        return thingUID;
+    }
+
+    public GlobeKey getGlobeKey() {
+        return globeKey;
+    }
+
+    public GlobeType getGlobeType() {
+        return globeType;
+    }
+
+    /**
+     * Adds the fields the hub has just sent to the latest value of every field it has sent for the globe.
+     */
+    public void rememberState(MilightState state) {
+        stateStore.merge(stateSlot, state);
+    }
+
+    /**
+     * Copies the latest value of every field the hub has sent for the globe.
+     *
+     * @return false if the hub has not sent anything for the globe yet.
+     */
+    public boolean copyLastKnown(MilightState into) {
+        return stateStore.copy(stateSlot, into);
+    }
+
+    public boolean hasLastKnown() {
+        return stateStore.isKnown(stateSlot);
+    }
+
+    public boolean hasBulbMode() {
+        return globeType.hasBulbMode();
+    }
+
+    /**
+     * @param channel one of LEVEL, COLOUR, COLOUR_TEMPERATURE, DISCO_MODE or BULB_MODE.
+     */
+    public ChannelUID getChannel(int channel) {
+        return channels[channel];
+    }
+
+    /**
+     * Records the state as the last one sent to the channel.
+     *
+     * @return false if the channel was already showing an equal state, so it does not need sending again.
+     */
+    public boolean isNewState(int channel, State state) {
+        @Nullable
+        State[] states = lastStates;
+        if (state.equals(states[channel])) {
+            return false;
+        }
+        states[channel] = state;
+        return true;
+    }
+
+    /**
+     * Forgets the last states so the next state from the hub is sent to every channel.
+     */
+    public void forgetStates() {
+        lastStates = new State[CHANNEL_COUNT];
+    }
+
+    /**
+     * Forgets the last state of one channel so the next state from the hub is sent to it.
+     *
+     * @param channelId the channel's ID, channels that are not one of the five states are ignored.
+     */
+    public void forgetState(String channelId) {
+        int channel = indexOf(channelId);
+        if (channel < 0) {
+            return;
+        }
+        // Copied and swapped whole, at worst a racing update is sent again.
+        @Nullable
+        State[] states = lastStates.clone();
+        states[channel] = null;
+        lastStates = states;
+    }
+
+    /**
+     * @return LEVEL, COLOUR, COLOUR_TEMPERATURE, DISCO_MODE, BULB_MODE or -1 for any other channel.
+     */
+    static int indexOf(String channelId) {
+        switch (channelId) {
+            case CHANNEL_LEVEL:
+                return LEVEL;
+            case CHANNEL_COLOUR:
+                return COLOUR;
+            case CHANNEL_COLOURTEMP:
+                return COLOUR_TEMPERATURE;
+            case CHANNEL_DISCO_MODE:
+                return DISCO_MODE;
+            case CHANNEL_BULB_MODE:
+                return BULB_MODE;
+            default:
+                return -1;
+        }
+    }
+
+    public ChannelUID getLevel() {
+        return channels[LEVEL];
+    }
+
+    public ChannelUID getColour() {
+        return channels[COLOUR];
+    }
+
+    public ChannelUID getColourTemperature() {
+        return channels[COLOUR_TEMPERATURE];
+    }
+
+    public ChannelUID getDiscoMode() {
+        return channels[DISCO_MODE];
+    }
+
+    public ChannelUID getBulbMode() {
+        return channels[BULB_MODE];
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link GlobeKey} class identifies one group of a remote, as found in the hub's topics. It is immutable and made
+ * by the {@link TopicCodec}, which also works out the command topic once so it never needs building again.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public final class GlobeKey {
+    private final String remoteCode;
+    private final GlobeType globeType;
+    private final int group;
+    private final String remoteKey;
+    private final String commandTopic;
+
+    GlobeKey(String remoteCode, GlobeType globeType, int group) {
+        this.remoteCode = remoteCode;
+        this.globeType = globeType;
+        this.group = group;
+        this.remoteKey = remoteCode + "/" + globeType.getId();
+        this.commandTopic = TopicCodec.commandTopic(remoteCode, globeType, group);
+    }
+
+    /**
+     * The remote code as the hub uses it, eg 0x01.
+     */
+    public String getRemoteCode() {
+        return remoteCode;
+    }
+
+    public GlobeType getGlobeType() {
+        return globeType;
+    }
+
+    public int getGroup() {
+        return group;
+    }
+
+    /**
+     * The same for every group of the remote, eg 0x01/rgb_cct.
+     */
+    public String getRemoteKey() {
+        return remoteKey;
+    }
+
+    /**
+     * The topic to publish commands for this globe on, eg milight/commands/0x01/rgb_cct/4.
+     */
+    public String getCommandTopic() {
+        return commandTopic;
+    }
+
+    /**
+     * The thing ID of the globe, eg 0x014.
+     */
+    public String getThingId() {
+        return remoteCode + group;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof GlobeKey)) {
+            return false;
+        }
+        GlobeKey other = (GlobeKey) obj;
+        return group == other.group && globeType == other.globeType && remoteCode.equals(other.remoteCode);
+    }
+
+    @Override
+    public int hashCode() {
+        return (remoteCode.hashCode() * 31 + globeType.hashCode()) * 31 + group;
+    }
+
+    @Override
+    public String toString() {
+        return remoteKey + "/" + group;
+    }
+}
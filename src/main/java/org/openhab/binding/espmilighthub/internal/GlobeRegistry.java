@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.smarthome.core.thing.Thing;
+
+/**
+ * The {@link GlobeRegistry} class indexes the globes that have an initialized handler by remote code and globe type,
+ * with one slot per group. A group 0 state from the hub is parsed once and then only handed to the groups found here,
+ * instead of every group the remote could have.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class GlobeRegistry {
+    /** fut089 remotes have the most groups, 0 to 8. */
+    public static final int MAX_GROUPS = 9;
+
+    // The arrays are copied on every change so the inbound workers can read them without locking.
+    private final ConcurrentHashMap<String, GlobeChannels[]> remotes = new ConcurrentHashMap<String, GlobeChannels[]>();
+    private final GlobeStateStore stateStore = new GlobeStateStore();
+
+    /**
+     * Does nothing if the thing ID is not a remote code followed by a group, eg 0x014 is remote 0x01 group 4.
+     *
+     * @return the globe's new entry, or null if it could not be registered.
+     */
+    public synchronized @Nullable GlobeChannels register(Thing globeThing) {
+        GlobeKey key = keyOf(globeThing);
+        if (key == null || key.getGroup() >= MAX_GROUPS) {
+            return null;
+        }
+        GlobeChannels[] groups = remotes.get(key.getRemoteKey());
+        GlobeChannels[] updated = groups == null ? new GlobeChannels[MAX_GROUPS] : Arrays.copyOf(groups, MAX_GROUPS);
+        GlobeChannels globe = new GlobeChannels(globeThing.getUID(), key, stateStore);
+        updated[key.getGroup()] = globe;
+        remotes.put(key.getRemoteKey(), updated);
+        return globe;
+    }
+
+    public synchronized void unregister(Thing globeThing) {
+        GlobeKey key = keyOf(globeThing);
+        if (key == null || key.getGroup() >= MAX_GROUPS) {
+            return;
+        }
+        GlobeChannels[] groups = remotes.get(key.getRemoteKey());
+        if (groups == null) {
+            return;
+        }
+        GlobeChannels[] updated = Arrays.copyOf(groups, MAX_GROUPS);
+        updated[key.getGroup()] = null;
+        for (GlobeChannels globe : updated) {
+            if (globe != null) {
+                remotes.put(key.getRemoteKey(), updated);
+                return;
+            }
+        }
+        remotes.remove(key.getRemoteKey());
+    }
+
+    public @Nullable GlobeChannels get(Thing globeThing) {
+        GlobeKey key = keyOf(globeThing);
+        return key == null ? null : get(key);
+    }
+
+    public @Nullable GlobeChannels get(GlobeKey key) {
+        GlobeChannels[] groups = getGroups(key);
+        if (groups == null || key.getGroup() >= MAX_GROUPS) {
+            return null;
+        }
+        return groups[key.getGroup()];
+    }
+
+    /**
+     * @return the globes of the key's remote indexed by group, empty slots are null. Do not change the array.
+     */
+    public GlobeChannels @Nullable [] getGroups(GlobeKey key) {
+        return remotes.get(key.getRemoteKey());
+    }
+
+    /**
+     * The states of every globe ever registered, kept when a globe is unregistered.
+     */
+    public GlobeStateStore getStateStore() {
+        return stateStore;
+    }
+
+    /**
+     * @return the globe's slot in the state store, or -1 if the thing is not a globe.
+     */
+    public int stateSlotFor(Thing globeThing) {
+        GlobeKey key = keyOf(globeThing);
+        return key == null ? -1 : stateStore.slotFor(key);
+    }
+
+    public Iterable<GlobeChannels[]> all() {
+        return remotes.values();
+    }
+
+    public void clear() {
+        remotes.clear();
+    }
+
+    private static @Nullable GlobeKey keyOf(Thing globeThing) {
+        return TopicCodec.forThing(globeThing.getThingTypeUID().getId(), globeThing.getUID().getId());
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link GlobeStateStore} holds the last state the hub sent for every globe of a bridge, and the level the globe
+ * goes back to when turned on, in one set of primitive arrays. Each globe gets a slot the first time it is seen, found
+ * by a packed int key of the remote code, globe type and group, so looking a globe up or changing its state never
+ * makes an object. The slot stays the globe's for as long as the bridge runs, so a globe whose thing is recreated keeps
+ * its state.
+ *
+ * The key is the 16 bit remote code shifted left by 8, then the globe type in 4 bits and the group in 4 bits. A remote
+ * code that is not a 16 bit hex number is given a number above 0xFFFF instead.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class GlobeStateStore {
+    public static final int DEFAULT_SAVED_LEVEL = 100;
+    private static final int INITIAL_SLOTS = 64;
+    private static final int NO_KEY = -1;
+
+    // Open addressing table from packed key to slot, always at most half full.
+    private int[] tableKeys = new int[INITIAL_SLOTS * 2];
+    private int[] tableSlots = new int[INITIAL_SLOTS * 2];
+    private final HashMap<String, Integer> otherRemoteCodes = new HashMap<String, Integer>();
+
+    private int slotCount = 0;
+    private byte[] present = new byte[INITIAL_SLOTS];
+    private byte[] state = new byte[INITIAL_SLOTS];
+    private short[] level = new short[INITIAL_SLOTS];
+    private short[] hue = new short[INITIAL_SLOTS];
+    private short[] saturation = new short[INITIAL_SLOTS];
+    private short[] colourTemp = new short[INITIAL_SLOTS];
+    private short[] mode = new short[INITIAL_SLOTS];
+    private byte[] bulbMode = new byte[INITIAL_SLOTS];
+    private byte[] savedLevel = new byte[INITIAL_SLOTS];
+
+    public GlobeStateStore() {
+        Arrays.fill(tableKeys, NO_KEY);
+    }
+
+    /**
+     * @return the globe's slot, a new one the first time the globe is seen.
+     */
+    public synchronized int slotFor(GlobeKey globeKey) {
+        int key = packedKey(globeKey);
+        int mask = tableKeys.length - 1;
+        int index = mix(key) & mask;
+        while (tableKeys[index] != NO_KEY) {
+            if (tableKeys[index] == key) {
+                return tableSlots[index];
+            }
+            index = (index + 1) & mask;
+        }
+        if (slotCount == present.length) {
+            grow();
+            return slotFor(globeKey);
+        }
+        int slot = slotCount++;
+        tableKeys[index] = key;
+        tableSlots[index] = slot;
+        savedLevel[slot] = DEFAULT_SAVED_LEVEL;
+        return slot;
+    }
+
+    /**
+     * Adds the fields the state has to the slot, keeping the rest. A level above 0 while the globe is on also becomes
+     * the level it goes back to when turned on.
+     */
+    public synchronized void merge(int slot, MilightState newState) {
+        int fields = newState.present;
+        if ((fields & MilightState.HAS_STATE) != 0) {
+            state[slot] = (byte) newState.state;
+        }
+        if ((fields & MilightState.HAS_LEVEL) != 0) {
+            level[slot] = (short) newState.level;
+            if (newState.level > 0 && newState.level <= 100 && state[slot] == MilightState.STATE_ON) {
+                savedLevel[slot] = (byte) newState.level;
+            }
+        }
+        if ((fields & MilightState.HAS_HUE) != 0) {
+            hue[slot] = (short) newState.hue;
+        }
+        if ((fields & MilightState.HAS_SATURATION) != 0) {
+            saturation[slot] = (short) newState.saturation;
+        }
+        if ((fields & MilightState.HAS_COLOUR_TEMP) != 0) {
+            colourTemp[slot] = (short) newState.colourTemp;
+        }
+        if ((fields & MilightState.HAS_MODE) != 0) {
+            mode[slot] = (short) newState.mode;
+        }
+        if ((fields & MilightState.HAS_BULB_MODE) != 0) {
+            bulbMode[slot] = (byte) newState.bulbMode;
+        }
+        present[slot] |= fields;
+    }
+
+    /**
+     * Copies every field the hub has sent for the slot.
+     *
+     * @return false if the hub has not sent anything for the globe yet.
+     */
+    public synchronized boolean copy(int slot, MilightState into) {
+        into.present = present[slot];
+        into.state = state[slot];
+        into.level = level[slot];
+        into.hue = hue[slot];
+        into.saturation = saturation[slot];
+        into.colourTemp = colourTemp[slot];
+        into.mode = mode[slot];
+        into.bulbMode = bulbMode[slot];
+        return present[slot] != 0;
+    }
+
+    public synchronized boolean isKnown(int slot) {
+        return present[slot] != 0;
+    }
+
+    /**
+     * One of the MilightState BULB_MODE constants, unknown until the hub or the bulbmode channel says.
+     */
+    public synchronized int getBulbMode(int slot) {
+        return (present[slot] & MilightState.HAS_BULB_MODE) != 0 ? bulbMode[slot] : MilightState.BULB_MODE_UNKNOWN;
+    }
+
+    public synchronized void setBulbMode(int slot, int newBulbMode) {
+        bulbMode[slot] = (byte) newBulbMode;
+        present[slot] |= MilightState.HAS_BULB_MODE;
+    }
+
+    /**
+     * The level the globe goes back to when it is turned on, 100 until a level is known.
+     */
+    public synchronized int getSavedLevel(int slot) {
+        return savedLevel[slot];
+    }
+
+    public synchronized void setSavedLevel(int slot, int newLevel) {
+        savedLevel[slot] = (byte) Math.max(0, Math.min(100, newLevel));
+    }
+
+    public synchronized int size() {
+        return slotCount;
+    }
+
+    /**
+     * Turns the bulbmode channel's text into one of the MilightState BULB_MODE constants.
+     */
+    public static int parseBulbMode(String text) {
+        switch (text) {
+            case "white":
+                return MilightState.BULB_MODE_WHITE;
+            case "color":
+                return MilightState.BULB_MODE_COLOR;
+            case "scene":
+                return MilightState.BULB_MODE_SCENE;
+            case "night":
+                return MilightState.BULB_MODE_NIGHT;
+            default:
+                return MilightState.BULB_MODE_UNKNOWN;
+        }
+    }
+
+    private int packedKey(GlobeKey globeKey) {
+        return remoteNumber(globeKey.getRemoteCode()) << 8 | globeKey.getGlobeType().ordinal() << 4
+                | globeKey.getGroup();
+    }
+
+    private int remoteNumber(String remoteCode) {
+        int number = parseHex(remoteCode);
+        if (number >= 0) {
+            return number;
+        }
+        Integer other = otherRemoteCodes.get(remoteCode);
+        if (other == null) {
+            other = 0x10000 + otherRemoteCodes.size();
+            otherRemoteCodes.put(remoteCode, other);
+        }
+        return other;
+    }
+
+    /**
+     * @return the value of a hex remote code such as 0xEC59, or -1 if it is not one that fits in 16 bits.
+     */
+    private static int parseHex(String remoteCode) {
+        if (remoteCode.length() < 3 || remoteCode.length() > 6 || remoteCode.charAt(0) != '0'
+                || (remoteCode.charAt(1) != 'x' && remoteCode.charAt(1) != 'X')) {
+            return -1;
+        }
+        int number = 0;
+        for (int i = 2; i < remoteCode.length(); i++) {
+            int digit = Character.digit(remoteCode.charAt(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            number = (number << 4) | digit;
+        }
+        return number;
+    }
+
+    private static int mix(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private void grow() {
+        int slots = present.length * 2;
+        present = Arrays.copyOf(present, slots);
+        state = Arrays.copyOf(state, slots);
+        level = Arrays.copyOf(level, slots);
+        hue = Arrays.copyOf(hue, slots);
+        saturation = Arrays.copyOf(saturation, slots);
+        colourTemp = Arrays.copyOf(colourTemp, slots);
+        mode = Arrays.copyOf(mode, slots);
+        bulbMode = Arrays.copyOf(bulbMode, slots);
+        savedLevel = Arrays.copyOf(savedLevel, slots);
+        int[] oldKeys = tableKeys;
+        int[] oldSlots = tableSlots;
+        tableKeys = new int[slots * 2];
+        tableSlots = new int[slots * 2];
+        Arrays.fill(tableKeys, NO_KEY);
+        int mask = tableKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != NO_KEY) {
+                int index = mix(oldKeys[i]) & mask;
+                while (tableKeys[index] != NO_KEY) {
+                    index = (index + 1) & mask;
+                }
+                tableKeys[index] = oldKeys[i];
+                tableSlots[index] = oldSlots[i];
+            }
+        }
+    }
+}
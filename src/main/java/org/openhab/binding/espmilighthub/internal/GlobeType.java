@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link GlobeType} enum lists the globe types the hub uses in its topics, which are also the thing type IDs.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public enum GlobeType {
+    RGB_CCT("rgb_cct", 4, true),
+    CCT("cct", 4, false),
+    RGBW("rgbw", 4, true),
+    RGB("rgb", 4, true),
+    FUT089("fut089", 8, true),
+    FUT091("fut091", 4, false);
+
+    private static final GlobeType[] TYPES = values();
+
+    private final String id;
+    private final int lastGroup;
+    private final boolean hasBulbMode;
+
+    private GlobeType(String id, int lastGroup, boolean hasBulbMode) {
+        this.id = id;
+        this.lastGroup = lastGroup;
+        this.hasBulbMode = hasBulbMode;
+    }
+
+    /**
+     * The name used by the hub in MQTT topics and by openHAB as the thing type ID, eg rgb_cct.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * The highest group a remote of this type has, group 0 controls groups 1 up to this one.
+     */
+    public int getLastGroup() {
+        return lastGroup;
+    }
+
+    /**
+     * cct and fut091 globes only have white LEDs so there is no bulb mode to track.
+     */
+    public boolean hasBulbMode() {
+        return hasBulbMode;
+    }
+
+    public static @Nullable GlobeType fromId(String id) {
+        return fromId(id, 0, id.length());
+    }
+
+    /**
+     * Looks up the type named by the characters from start to end of the text, without making a new String.
+     */
+    public static @Nullable GlobeType fromId(String text, int start, int end) {
+        int length = end - start;
+        for (GlobeType type : TYPES) {
+            if (type.id.length() == length && text.regionMatches(start, type.id, 0, length)) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
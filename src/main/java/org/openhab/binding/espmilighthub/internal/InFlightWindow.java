@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link InFlightWindow} counts the MQTT messages that have been handed to the broker but not yet acknowledged,
+ * so the sender can keep several messages on the way instead of waiting a full round trip for each one. Each publish
+ * carries a {@link Delivery} as its user context, which is completed once however the broker answers, so a message
+ * acknowledged twice or failed after being acknowledged is only counted once.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class InFlightWindow {
+    private final int size;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * One published message waiting for the broker to acknowledge it.
+     */
+    public final class Delivery {
+        private final String topic;
+        private final long publishedNanos;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Delivery(String topic, long publishedNanos) {
+            this.topic = topic;
+            this.publishedNanos = publishedNanos;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public long getPublishedNanos() {
+            return publishedNanos;
+        }
+
+        /**
+         * Frees the message's place in the window.
+         *
+         * @return false if it had already been completed.
+         */
+        public boolean complete(boolean success) {
+            if (!done.compareAndSet(false, true)) {
+                return false;
+            }
+            inFlight.decrementAndGet();
+            if (success) {
+                delivered.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+            return true;
+        }
+    }
+
+    public InFlightWindow(int size) {
+        this.size = Math.max(1, size);
+    }
+
+    /**
+     * Takes a place in the window for a message about to be published, even if the window is already full.
+     */
+    public Delivery open(String topic) {
+        inFlight.incrementAndGet();
+        return new Delivery(topic, System.nanoTime());
+    }
+
+    public boolean isFull() {
+        return inFlight.get() >= size;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+}
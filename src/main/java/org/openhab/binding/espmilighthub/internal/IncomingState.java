@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link IncomingState} class holds one milight/states message from the hub waiting to be processed. The payload
+ * is the raw byte array from the MQTT message and is not copied.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public final class IncomingState {
+    private final String topic;
+    private final byte[] payload;
+    private final long receivedNanos;
+
+    public IncomingState(String topic, byte[] payload) {
+        this.topic = topic;
+        this.payload = payload;
+        this.receivedNanos = System.nanoTime();
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * The System.nanoTime() when the message arrived from the broker, before it waited in the queue.
+     */
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+}
@@ -0,0 +1,292 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.espmilighthub.internal.CommandRingBuffer.DropListener;
+import org.openhab.binding.espmilighthub.internal.CommandRingBuffer.OverflowPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link IncomingStateDispatcher} queues the states that arrive from the MQTT broker and processes them on the
+ * executor as soon as they arrive. Messages are processed in the order they arrived, in batches of up to
+ * INBOUND_MAX_BATCH before the executor is handed back, so a flood of retained states after a reconnect is applied
+ * straight away instead of one message per timer tick.
+ *
+ * With more than one worker the states are split between them by remote, each worker having its own queue and a
+ * single thread executor. All states for a remote are applied by the same worker in the order they arrived, while
+ * different remotes are applied in parallel.
+ *
+ * A state for a globe that already has one waiting replaces the waiting one in its place in the queue. The hub sends
+ * the whole state of the globe each time, so only the newest is applied, and a backlog takes as long as the number of
+ * globes in it rather than the number of messages. A group 0 state applies to every group of the remote, so a state
+ * for a single group is not moved ahead of a group 0 state that arrived after the waiting one, nor the other way
+ * round. States for different single groups collapse independently of each other.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class IncomingStateDispatcher {
+
+    /**
+     * Applies the incoming states to openHAB.
+     */
+    public interface Processor {
+        /**
+         * Returning false leaves the queue as it is until {@link IncomingStateDispatcher#schedule()} is called again.
+         */
+        boolean isReady();
+
+        void process(IncomingState state);
+    }
+
+    /**
+     * Holds the newest state for a globe while it waits in the queue.
+     */
+    private static final class Waiting {
+        private final String topic;
+        private final long sequence;
+        private IncomingState state;
+
+        Waiting(IncomingState state, long sequence) {
+            this.topic = state.getTopic();
+            this.sequence = sequence;
+            this.state = state;
+        }
+    }
+
+    /**
+     * The sequence numbers of the newest entries queued for a remote, for group 0 and for its single groups.
+     */
+    private static final class RemoteOrder {
+        private long allGroups = -1;
+        private long singleGroup = -1;
+    }
+
+    /**
+     * One worker, the remotes it looks after and the executor it runs on.
+     */
+    private final class Worker implements Runnable, DropListener<Waiting> {
+        private final CommandRingBuffer<Waiting> queue;
+        private final Executor executor;
+        // The newest waiting entry for each topic and the queue order of each remote, all guarded by locking
+        // waitingTopics. An entry still waiting was queued before anything in remoteOrders that is newer than it.
+        private final HashMap<String, Waiting> waitingTopics = new HashMap<String, Waiting>();
+        private final HashMap<String, RemoteOrder> remoteOrders = new HashMap<String, RemoteOrder>();
+        private long nextSequence;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Worker(Executor executor, int capacity) {
+            this.queue = new CommandRingBuffer<Waiting>(capacity, OverflowPolicy.DROP_OLDEST);
+            this.executor = executor;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (processor.isReady()) {
+                    for (int count = 0; count < maxBatch; count++) {
+                        Waiting waiting = queue.poll();
+                        if (waiting == null) {
+                            break;
+                        }
+                        IncomingState state = take(waiting);
+                        long start = System.nanoTime();
+                        try {
+                            processor.process(state);
+                            processingTime.record(System.nanoTime() - start);
+                        } catch (RuntimeException e) {
+                            logger.warn("Could not process the Milight state {}:{}", state.getTopic(), e.getMessage());
+                        }
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            if (!queue.isEmpty() && processor.isReady()) {
+                schedule();
+            }
+        }
+
+        void submit(IncomingState state, @Nullable GlobeKey globeKey) {
+            synchronized (waitingTopics) {
+                if (globeKey == null) {
+                    queue.offer(new Waiting(state, nextSequence++), this);
+                } else {
+                    String remoteKey = globeKey.getRemoteKey();
+                    boolean allGroups = globeKey.getGroup() == 0;
+                    RemoteOrder order = remoteOrders.get(remoteKey);
+                    if (order == null) {
+                        order = new RemoteOrder();
+                        remoteOrders.put(remoteKey, order);
+                    }
+                    Waiting waiting = waitingTopics.get(state.getTopic());
+                    long overlappingSince = allGroups ? order.singleGroup : order.allGroups;
+                    if (waiting != null && overlappingSince < waiting.sequence) {
+                        waiting.state = state;
+                        collapsedCount.incrementAndGet();
+                        return;
+                    }
+                    Waiting added = new Waiting(state, nextSequence++);
+                    if (allGroups) {
+                        order.allGroups = added.sequence;
+                    } else {
+                        order.singleGroup = added.sequence;
+                    }
+                    waitingTopics.put(added.topic, added);
+                    queue.offer(added, this);
+                }
+            }
+            schedule();
+        }
+
+        /**
+         * Called with waitingTopics locked for each entry the full queue throws away.
+         */
+        @Override
+        public void dropped(Waiting lost) {
+            forget(lost);
+            logger.warn("Incoming MQTT queue is full ({} messages), dropped the oldest state for {}", queue.capacity(),
+                    lost.topic);
+        }
+
+        /**
+         * @return the newest state for the entry, a state arriving later for the same globe is queued behind it.
+         */
+        private IncomingState take(Waiting waiting) {
+            synchronized (waitingTopics) {
+                forget(waiting);
+                return waiting.state;
+            }
+        }
+
+        private void forget(Waiting waiting) {
+            waitingTopics.remove(waiting.topic, waiting);
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        void clear() {
+            synchronized (waitingTopics) {
+                queue.clear();
+                waitingTopics.clear();
+                remoteOrders.clear();
+            }
+        }
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(IncomingStateDispatcher.class);
+    private final Worker[] workers;
+    private final Processor processor;
+    private final int maxBatch;
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong collapsedCount = new AtomicLong();
+    private final LatencyHistogram processingTime = new LatencyHistogram();
+
+    /**
+     * @param executors one per worker, each must run one task at a time to keep the states of a remote in order.
+     * @param capacity the number of states each worker can have waiting.
+     */
+    public IncomingStateDispatcher(Executor[] executors, Processor processor, int capacity, int maxBatch) {
+        this.processor = processor;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.workers = new Worker[Math.max(1, executors.length)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(executors[i], capacity);
+        }
+    }
+
+    public void submit(IncomingState state) {
+        receivedCount.incrementAndGet();
+        GlobeKey globeKey = TopicCodec.parseStateTopic(state.getTopic());
+        workerFor(globeKey == null ? null : globeKey.getRemoteKey()).submit(state, globeKey);
+    }
+
+    /**
+     * Runs the task on the worker that applies the states of the key's remote, so it never runs at the same time as
+     * one of them.
+     */
+    public void execute(GlobeKey globeKey, Runnable task) {
+        workerFor(globeKey.getRemoteKey()).executor.execute(task);
+    }
+
+    private Worker workerFor(@Nullable String remoteKey) {
+        if (remoteKey == null || workers.length == 1) {
+            return workers[0];
+        }
+        return workers[(remoteKey.hashCode() & Integer.MAX_VALUE) % workers.length];
+    }
+
+    /**
+     * Makes sure a drain is running or about to run, call when the processor becomes ready again.
+     */
+    public void schedule() {
+        for (Worker worker : workers) {
+            if (!worker.queue.isEmpty()) {
+                worker.schedule();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Worker worker : workers) {
+            size += worker.queue.size();
+        }
+        return size;
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (Worker worker : workers) {
+            dropped += worker.queue.getDroppedCount();
+        }
+        return dropped;
+    }
+
+    /**
+     * Number of states replaced by a newer one for the same globe before they were applied.
+     */
+    public long getCollapsedCount() {
+        return collapsedCount.get();
+    }
+
+    /**
+     * How long each state took to apply to openHAB, not counting the time it waited in the queue.
+     */
+    public LatencyHistogram getProcessingTime() {
+        return processingTime;
+    }
+
+    public void clear() {
+        for (Worker worker : workers) {
+            worker.clear();
+        }
+    }
+}
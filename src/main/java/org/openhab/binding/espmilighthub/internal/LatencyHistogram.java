@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link LatencyHistogram} counts durations in buckets that double in width every 8 buckets, so any duration from
+ * a nanosecond to hours is kept to within about 12%. Recording is a single atomic increment with no locks or
+ * allocation, so it can sit on the sending and receiving threads without slowing them down.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * The counts taken from the histogram at one point in time.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+
+        Snapshot(long[] counts, long count) {
+            this.counts = counts;
+            this.count = count;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @param percentile from 0 to 100.
+         * @return the middle of the bucket holding the percentile, or 0 if nothing was recorded.
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long wanted = Math.max(1, (long) Math.ceil(count * Math.min(100, percentile) / 100));
+            long seen = 0;
+            for (int index = 0; index < counts.length; index++) {
+                seen += counts[index];
+                if (seen >= wanted) {
+                    return valueOf(index);
+                }
+            }
+            return valueOf(counts.length - 1);
+        }
+    }
+
+    public void record(long nanos) {
+        buckets.incrementAndGet(indexOf(Math.max(0, nanos)));
+    }
+
+    /**
+     * Takes the counts recorded since the last call and starts again from empty. Durations recorded while this runs
+     * end up in this snapshot or the next one, none are lost.
+     */
+    public Snapshot snapshotAndReset() {
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            if (buckets.get(index) != 0) {
+                counts[index] = buckets.getAndSet(index, 0);
+                count += counts[index];
+            }
+        }
+        return new Snapshot(counts, count);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long valueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + ((1L << shift) >>> 1);
+    }
+}
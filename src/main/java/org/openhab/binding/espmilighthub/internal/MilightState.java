@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link MilightState} class holds the fields of one state message from the hub. It is filled by the
+ * {@link StatePayloadParser} and reused for every message, so check the has methods before reading a field as values
+ * left over from an earlier message are not cleared.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class MilightState {
+    public static final int STATE_OFF = 0;
+    public static final int STATE_ON = 1;
+
+    public static final int BULB_MODE_UNKNOWN = 0;
+    public static final int BULB_MODE_WHITE = 1;
+    public static final int BULB_MODE_COLOR = 2;
+    public static final int BULB_MODE_SCENE = 3;
+    public static final int BULB_MODE_NIGHT = 4;
+
+    static final int HAS_STATE = 1;
+    static final int HAS_LEVEL = 1 << 1;
+    static final int HAS_HUE = 1 << 2;
+    static final int HAS_SATURATION = 1 << 3;
+    static final int HAS_COLOUR_TEMP = 1 << 4;
+    static final int HAS_MODE = 1 << 5;
+    static final int HAS_BULB_MODE = 1 << 6;
+
+    int present;
+    int state;
+    int level;
+    int hue;
+    int saturation;
+    int colourTemp;
+    int mode;
+    int bulbMode;
+
+    public void clear() {
+        present = 0;
+    }
+
+    public boolean hasState() {
+        return (present & HAS_STATE) != 0;
+    }
+
+    public boolean hasLevel() {
+        return (present & HAS_LEVEL) != 0;
+    }
+
+    public boolean hasHue() {
+        return (present & HAS_HUE) != 0;
+    }
+
+    public boolean hasSaturation() {
+        return (present & HAS_SATURATION) != 0;
+    }
+
+    public boolean hasColourTemp() {
+        return (present & HAS_COLOUR_TEMP) != 0;
+    }
+
+    public boolean hasMode() {
+        return (present & HAS_MODE) != 0;
+    }
+
+    public boolean hasBulbMode() {
+        return (present & HAS_BULB_MODE) != 0;
+    }
+
+    /**
+     * {@link #STATE_ON} or {@link #STATE_OFF}.
+     */
+    public int getState() {
+        return state;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getHue() {
+        return hue;
+    }
+
+    public int getSaturation() {
+        return saturation;
+    }
+
+    /**
+     * The hub's color_temp in mireds, 153 is the coolest and 370 the warmest.
+     */
+    public int getColourTemp() {
+        return colourTemp;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * One of the BULB_MODE constants.
+     */
+    public int getBulbMode() {
+        return bulbMode;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("MilightState[");
+        if (hasState()) {
+            text.append(" state=").append(state == STATE_ON ? "ON" : "OFF");
+        }
+        if (hasLevel()) {
+            text.append(" level=").append(level);
+        }
+        if (hasHue()) {
+            text.append(" hue=").append(hue);
+        }
+        if (hasSaturation()) {
+            text.append(" saturation=").append(saturation);
+        }
+        if (hasColourTemp()) {
+            text.append(" color_temp=").append(colourTemp);
+        }
+        if (hasMode()) {
+            text.append(" mode=").append(mode);
+        }
+        if (hasBulbMode()) {
+            text.append(" bulb_mode=").append(bulbMode);
+        }
+        return text.append(" ]").toString();
+    }
+}
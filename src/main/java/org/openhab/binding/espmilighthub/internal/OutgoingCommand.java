@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.espmilighthub.internal.CommandCoalescer.PendingState;
+
+/**
+ * The {@link OutgoingCommand} class holds one MQTT message waiting to be sent to the hub. The payload is encoded to
+ * bytes when the command is queued so the sending thread only has to hand it to the MQTT client. Coalesced state
+ * changes are the exception, their payload is only encoded when the command is taken off the queue so any changes
+ * made while it waited are included.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public final class OutgoingCommand {
+    private final String topic;
+    private final byte[] payload;
+    private final CommandPriority priority;
+    private final long enqueuedNanos;
+    private final @Nullable PendingState pendingState;
+
+    public OutgoingCommand(String topic, byte[] payload, long enqueuedNanos) {
+        this(topic, payload, CommandPriority.EFFECT, enqueuedNanos);
+    }
+
+    public OutgoingCommand(String topic, byte[] payload, CommandPriority priority, long enqueuedNanos) {
+        this.topic = topic;
+        this.payload = payload;
+        this.priority = priority;
+        this.enqueuedNanos = enqueuedNanos;
+        this.pendingState = null;
+    }
+
+    OutgoingCommand(String topic, PendingState pendingState, long enqueuedNanos) {
+        this.topic = topic;
+        this.payload = new byte[0];
+        this.priority = CommandPriority.EFFECT;
+        this.enqueuedNanos = enqueuedNanos;
+        this.pendingState = pendingState;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public boolean isCoalesced() {
+        return pendingState != null;
+    }
+
+    /**
+     * For a coalesced state this follows the merged fields, so a colour change that gets merged with an off becomes a
+     * {@link CommandPriority#SWITCH}.
+     */
+    public CommandPriority getPriority() {
+        PendingState state = pendingState;
+        if (state != null) {
+            return state.getPriority();
+        }
+        return priority;
+    }
+
+    /**
+     * Returns the bytes to publish. For a coalesced state this closes the command to further merging, so it must only
+     * be called once by the sending thread. The array is shared and not copied, it must not be modified.
+     */
+    public byte[] takePayload() {
+        PendingState state = pendingState;
+        if (state != null) {
+            return state.take();
+        }
+        return payload;
+    }
+
+    /**
+     * Called when the command is thrown away without being sent, so later state changes are not merged into it.
+     */
+    public void cancel() {
+        PendingState state = pendingState;
+        if (state != null) {
+            state.seal();
+        }
+    }
+
+    public long getEnqueuedNanos() {
+        return enqueuedNanos;
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link PersistentOutboundLog} keeps the commands queued while the MQTT broker cannot be reached in a memory
+ * mapped file of a fixed size, so they survive openHAB restarting. Each command is appended with the time it was
+ * queued. When the broker is back the log is read, the state changes queued for a globe since its last command are
+ * merged field by field with a {@link CommandCoalescer}, commands such as night_mode or pair are kept as they are and
+ * in their place, anything older than the time to live is dropped, and the log starts again empty.
+ *
+ * File layout: a header of magic, version and the end of the last record, then records of total length, queued time
+ * in epoch milliseconds, priority, 1 if the payload is a state change that can be merged, topic length, topic and
+ * payload.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class PersistentOutboundLog {
+    private static final int MAGIC = 0x454D514C; // EMQL
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 12;
+    private static final int END_POSITION = 8;
+    private static final int RECORD_OVERHEAD = 4 + 8 + 1 + 1 + 2;
+
+    private final Logger logger = LoggerFactory.getLogger(PersistentOutboundLog.class);
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private int end;
+
+    /**
+     * One command read back from the log.
+     */
+    public static final class Entry {
+        private final String topic;
+        private final byte[] payload;
+        private final CommandPriority priority;
+        private final boolean stateChange;
+        private final long queuedMillis;
+
+        Entry(String topic, byte[] payload, CommandPriority priority, boolean stateChange, long queuedMillis) {
+            this.topic = topic;
+            this.payload = payload;
+            this.priority = priority;
+            this.stateChange = stateChange;
+            this.queuedMillis = queuedMillis;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public CommandPriority getPriority() {
+            return priority;
+        }
+
+        public boolean isStateChange() {
+            return stateChange;
+        }
+
+        /**
+         * For merged state changes this is when the last of them was queued.
+         */
+        public long getQueuedMillis() {
+            return queuedMillis;
+        }
+    }
+
+    /**
+     * Opens the log, creating it if needed. A file that is not a log or is a different size is started again empty.
+     */
+    public PersistentOutboundLog(File logFile, int sizeBytes) throws IOException {
+        File folder = logFile.getParentFile();
+        if (folder != null && !folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Could not create the folder " + folder);
+        }
+        int size = Math.max(HEADER_SIZE + RECORD_OVERHEAD, sizeBytes);
+        file = new RandomAccessFile(logFile, "rw");
+        boolean fresh = file.length() != size;
+        if (fresh) {
+            file.setLength(size);
+        }
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (fresh || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            reset();
+        } else {
+            end = buffer.getInt(END_POSITION);
+            if (end < HEADER_SIZE || end > size) {
+                logger.warn("The outbound log {} was damaged, the commands in it are lost.", logFile);
+                reset();
+            }
+        }
+    }
+
+    /**
+     * @param stateChange true for a payload made by {@link CommandEncoder#encodeState}, which is merged with the other
+     *            state changes for the globe. Anything else is kept as it is and never merged across.
+     * @return false if the log is full even after merging the state changes.
+     */
+    public synchronized boolean append(String topic, byte[] payload, CommandPriority priority, boolean stateChange,
+            long queuedMillis) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_OVERHEAD + topicBytes.length + payload.length;
+        if (end + length > buffer.capacity()) {
+            compact();
+            if (end + length > buffer.capacity()) {
+                return false;
+            }
+        }
+        buffer.position(end);
+        buffer.putInt(length);
+        buffer.putLong(queuedMillis);
+        buffer.put((byte) priority.ordinal());
+        buffer.put((byte) (stateChange ? 1 : 0));
+        buffer.putShort((short) topicBytes.length);
+        buffer.put(topicBytes);
+        buffer.put(payload);
+        // The end is written last so a crash part way through a record loses only that record.
+        end += length;
+        buffer.putInt(END_POSITION, end);
+        return true;
+    }
+
+    /**
+     * Empties the log.
+     *
+     * @return the merged state changes and the commands that are younger than the time to live, in the order they
+     *         were queued.
+     */
+    public synchronized List<Entry> drain(long nowMillis, long ttlMillis) {
+        List<Entry> entries = new ArrayList<Entry>();
+        for (Entry entry : readMerged()) {
+            if (nowMillis - entry.getQueuedMillis() <= ttlMillis) {
+                entries.add(entry);
+            } else {
+                logger.debug("Dropped the command for {} from the outbound log as it is too old to send.",
+                        entry.getTopic());
+            }
+        }
+        reset();
+        buffer.force();
+        return entries;
+    }
+
+    public synchronized boolean isEmpty() {
+        return end == HEADER_SIZE;
+    }
+
+    public synchronized void close() {
+        buffer.force();
+        try {
+            file.close();
+        } catch (IOException e) {
+            logger.debug("Could not close the outbound log:{}", e.getMessage());
+        }
+    }
+
+    private void compact() {
+        List<Entry> entries = readMerged();
+        reset();
+        for (Entry entry : entries) {
+            append(entry.getTopic(), entry.getPayload(), entry.getPriority(), entry.isStateChange(),
+                    entry.getQueuedMillis());
+        }
+    }
+
+    /**
+     * Reads the records in order, merging each run of state changes for a globe into one. A command for the globe
+     * ends the run so nothing is moved across it.
+     */
+    private List<Entry> readMerged() {
+        CommandCoalescer coalescer = new CommandCoalescer();
+        MilightState fields = new MilightState();
+        List<OutgoingCommand> commands = new ArrayList<OutgoingCommand>();
+        List<Long> queuedTimes = new ArrayList<Long>();
+        // Where the state change still open to merging is for each topic.
+        HashMap<String, Integer> openStates = new HashMap<String, Integer>();
+        CommandPriority[] priorities = CommandPriority.values();
+        int position = HEADER_SIZE;
+        while (position + RECORD_OVERHEAD <= end) {
+            int length = buffer.getInt(position);
+            if (length < RECORD_OVERHEAD || position + length > end) {
+                break;
+            }
+            long queuedMillis = buffer.getLong(position + 4);
+            int priority = buffer.get(position + 12);
+            boolean stateChange = buffer.get(position + 13) != 0;
+            int topicLength = buffer.getShort(position + 14) & 0xFFFF;
+            int payloadLength = length - RECORD_OVERHEAD - topicLength;
+            if (payloadLength < 0 || priority < 0 || priority >= priorities.length) {
+                break;
+            }
+            byte[] topicBytes = new byte[topicLength];
+            byte[] payload = new byte[payloadLength];
+            buffer.position(position + RECORD_OVERHEAD);
+            buffer.get(topicBytes);
+            buffer.get(payload);
+            String topic = new String(topicBytes, StandardCharsets.UTF_8);
+            position += length;
+            if (stateChange && StatePayloadParser.parse(payload, fields)) {
+                OutgoingCommand merged = coalescer.coalesce(topic, field(fields.hasState(), fields.state),
+                        field(fields.hasLevel(), fields.level), field(fields.hasHue(), fields.hue),
+                        field(fields.hasSaturation(), fields.saturation),
+                        field(fields.hasColourTemp(), fields.colourTemp), priorities[priority]);
+                Integer open = openStates.get(topic);
+                if (merged != null) {
+                    openStates.put(topic, commands.size());
+                    commands.add(merged);
+                    queuedTimes.add(queuedMillis);
+                } else if (open != null) {
+                    queuedTimes.set(open, queuedMillis);
+                }
+                continue;
+            }
+            coalescer.barrier(topic);
+            openStates.remove(topic);
+            commands.add(new OutgoingCommand(topic, payload, priorities[priority], 0));
+            queuedTimes.add(queuedMillis);
+        }
+        List<Entry> entries = new ArrayList<Entry>(commands.size());
+        for (int i = 0; i < commands.size(); i++) {
+            OutgoingCommand command = commands.get(i);
+            CommandPriority priority = command.getPriority();
+            entries.add(new Entry(command.getTopic(), command.takePayload(), priority, command.isCoalesced(),
+                    queuedTimes.get(i)));
+        }
+        return entries;
+    }
+
+    private static int field(boolean present, int value) {
+        return present ? value : CommandCoalescer.UNSET;
+    }
+
+    private void reset() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        end = HEADER_SIZE;
+        buffer.putInt(END_POSITION, end);
+    }
+}
@@ -0,0 +1,342 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.openhab.binding.espmilighthub.internal.MilightState.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link StatePayloadParser} reads the JSON state the hub publishes on milight/states in a single pass over the
+ * raw MQTT bytes. Fields can be in any order with any whitespace, numbers are read straight from the bytes, and fields
+ * the binding does not use are skipped, including nested objects and arrays.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public final class StatePayloadParser {
+    private static final byte[] KEY_STATE = ascii("state");
+    private static final byte[] KEY_LEVEL = ascii("level");
+    private static final byte[] KEY_HUE = ascii("hue");
+    private static final byte[] KEY_SATURATION = ascii("saturation");
+    private static final byte[] KEY_COLOUR_TEMP = ascii("color_temp");
+    private static final byte[] KEY_MODE = ascii("mode");
+    private static final byte[] KEY_BULB_MODE = ascii("bulb_mode");
+    private static final byte[] VALUE_ON = ascii("ON");
+    private static final byte[] VALUE_OFF = ascii("OFF");
+    private static final byte[] VALUE_WHITE = ascii("white");
+    private static final byte[] VALUE_COLOR = ascii("color");
+    private static final byte[] VALUE_SCENE = ascii("scene");
+    private static final byte[] VALUE_NIGHT = ascii("night");
+
+    private StatePayloadParser() {
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Fills the state from the payload, clearing anything left from the last message first.
+     *
+     * @return false if the payload is not a JSON object, fields read before the problem are kept.
+     */
+    public static boolean parse(byte[] payload, MilightState state) {
+        state.clear();
+        int length = payload.length;
+        int pos = skipWhitespace(payload, 0, length);
+        if (pos >= length || payload[pos] != '{') {
+            return false;
+        }
+        pos++;
+        while (true) {
+            pos = skipWhitespace(payload, pos, length);
+            if (pos >= length) {
+                return false;
+            }
+            if (payload[pos] == '}') {
+                return true;
+            }
+            if (payload[pos] == ',') {
+                pos++;
+                continue;
+            }
+            if (payload[pos] != '"') {
+                return false;
+            }
+            int keyStart = pos + 1;
+            int keyEnd = endOfString(payload, keyStart, length);
+            if (keyEnd < 0) {
+                return false;
+            }
+            pos = skipWhitespace(payload, keyEnd + 1, length);
+            if (pos >= length || payload[pos] != ':') {
+                return false;
+            }
+            pos = skipWhitespace(payload, pos + 1, length);
+            if (pos >= length) {
+                return false;
+            }
+            int field = fieldFor(payload, keyStart, keyEnd - keyStart);
+            pos = readValue(payload, pos, length, field, state);
+            if (pos < 0) {
+                return false;
+            }
+        }
+    }
+
+    private static int fieldFor(byte[] payload, int start, int length) {
+        switch (length) {
+            case 3:
+                return matches(payload, start, length, KEY_HUE) ? HAS_HUE : 0;
+            case 4:
+                return matches(payload, start, length, KEY_MODE) ? HAS_MODE : 0;
+            case 5:
+                if (matches(payload, start, length, KEY_STATE)) {
+                    return HAS_STATE;
+                }
+                return matches(payload, start, length, KEY_LEVEL) ? HAS_LEVEL : 0;
+            case 9:
+                return matches(payload, start, length, KEY_BULB_MODE) ? HAS_BULB_MODE : 0;
+            case 10:
+                if (matches(payload, start, length, KEY_SATURATION)) {
+                    return HAS_SATURATION;
+                }
+                return matches(payload, start, length, KEY_COLOUR_TEMP) ? HAS_COLOUR_TEMP : 0;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Reads the value at pos into the field, or skips it if the field is not wanted.
+     *
+     * @return the position after the value, or -1 if it is malformed.
+     */
+    private static int readValue(byte[] payload, int pos, int length, int field, MilightState state) {
+        byte first = payload[pos];
+        if (first == '"') {
+            int start = pos + 1;
+            int end = endOfString(payload, start, length);
+            if (end < 0) {
+                return -1;
+            }
+            if (field == HAS_STATE) {
+                if (matchesIgnoreCase(payload, start, end - start, VALUE_ON)) {
+                    setState(state, STATE_ON);
+                } else if (matchesIgnoreCase(payload, start, end - start, VALUE_OFF)) {
+                    setState(state, STATE_OFF);
+                }
+            } else if (field == HAS_BULB_MODE) {
+                setBulbMode(state, payload, start, end - start);
+            } else if (field != 0) {
+                // Some firmware versions quote numbers, mode in particular.
+                int number = parseNumber(payload, start, end);
+                if (number != Integer.MIN_VALUE) {
+                    setNumber(state, field, number);
+                }
+            }
+            return end + 1;
+        }
+        if (first == '-' || (first >= '0' && first <= '9')) {
+            int end = pos;
+            while (end < length && isNumberChar(payload[end])) {
+                end++;
+            }
+            if (field != 0) {
+                int number = parseNumber(payload, pos, end);
+                if (number == Integer.MIN_VALUE) {
+                    return -1;
+                }
+                setNumber(state, field, number);
+            }
+            return end;
+        }
+        if (first == '{' || first == '[') {
+            return skipNested(payload, pos, length);
+        }
+        // true, false or null
+        int end = pos;
+        while (end < length && payload[end] >= 'a' && payload[end] <= 'z') {
+            end++;
+        }
+        return end > pos ? end : -1;
+    }
+
+    private static void setState(MilightState state, int value) {
+        state.state = value;
+        state.present |= HAS_STATE;
+    }
+
+    private static void setBulbMode(MilightState state, byte[] payload, int start, int length) {
+        if (matches(payload, start, length, VALUE_WHITE)) {
+            state.bulbMode = BULB_MODE_WHITE;
+        } else if (matches(payload, start, length, VALUE_COLOR)) {
+            state.bulbMode = BULB_MODE_COLOR;
+        } else if (matches(payload, start, length, VALUE_SCENE)) {
+            state.bulbMode = BULB_MODE_SCENE;
+        } else if (matches(payload, start, length, VALUE_NIGHT)) {
+            state.bulbMode = BULB_MODE_NIGHT;
+        } else {
+            state.bulbMode = BULB_MODE_UNKNOWN;
+        }
+        state.present |= HAS_BULB_MODE;
+    }
+
+    private static void setNumber(MilightState state, int field, int value) {
+        switch (field) {
+            case HAS_LEVEL:
+                state.level = value;
+                break;
+            case HAS_HUE:
+                state.hue = value;
+                break;
+            case HAS_SATURATION:
+                state.saturation = value;
+                break;
+            case HAS_COLOUR_TEMP:
+                state.colourTemp = value;
+                break;
+            case HAS_MODE:
+                state.mode = value;
+                break;
+            default:
+                return;
+        }
+        state.present |= field;
+    }
+
+    /**
+     * Parses a JSON number and rounds it to the nearest int.
+     *
+     * @return the value, or Integer.MIN_VALUE if the bytes are not a number.
+     */
+    private static int parseNumber(byte[] payload, int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && payload[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+        if (pos >= end || payload[pos] < '0' || payload[pos] > '9') {
+            return Integer.MIN_VALUE;
+        }
+        double value = 0;
+        while (pos < end && payload[pos] >= '0' && payload[pos] <= '9') {
+            value = value * 10 + (payload[pos++] - '0');
+        }
+        if (pos < end && payload[pos] == '.') {
+            pos++;
+            double scale = 0.1;
+            while (pos < end && payload[pos] >= '0' && payload[pos] <= '9') {
+                value += (payload[pos++] - '0') * scale;
+                scale /= 10;
+            }
+        }
+        if (pos < end && (payload[pos] == 'e' || payload[pos] == 'E')) {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < end && (payload[pos] == '-' || payload[pos] == '+')) {
+                negativeExponent = payload[pos++] == '-';
+            }
+            int exponent = 0;
+            while (pos < end && payload[pos] >= '0' && payload[pos] <= '9') {
+                exponent = Math.min(exponent * 10 + (payload[pos++] - '0'), 400);
+            }
+            value *= Math.pow(10, negativeExponent ? -exponent : exponent);
+        }
+        if (pos != end) {
+            return Integer.MIN_VALUE;
+        }
+        long rounded = Math.round(negative ? -value : value);
+        return (int) Math.max(Integer.MIN_VALUE + 1, Math.min(Integer.MAX_VALUE, rounded));
+    }
+
+    private static boolean isNumberChar(byte character) {
+        return (character >= '0' && character <= '9') || character == '-' || character == '+' || character == '.'
+                || character == 'e' || character == 'E';
+    }
+
+    private static int skipWhitespace(byte[] payload, int pos, int length) {
+        while (pos < length && (payload[pos] == ' ' || payload[pos] == '\t' || payload[pos] == '\n'
+                || payload[pos] == '\r')) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @return the index of the closing quote of the string starting at pos, or -1 if it never closes.
+     */
+    private static int endOfString(byte[] payload, int pos, int length) {
+        while (pos < length) {
+            byte character = payload[pos];
+            if (character == '\\') {
+                pos += 2;
+            } else if (character == '"') {
+                return pos;
+            } else {
+                pos++;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipNested(byte[] payload, int pos, int length) {
+        int depth = 0;
+        while (pos < length) {
+            byte character = payload[pos];
+            if (character == '"') {
+                pos = endOfString(payload, pos + 1, length);
+                if (pos < 0) {
+                    return -1;
+                }
+            } else if (character == '{' || character == '[') {
+                depth++;
+            } else if (character == '}' || character == ']') {
+                if (--depth == 0) {
+                    return pos + 1;
+                }
+            }
+            pos++;
+        }
+        return -1;
+    }
+
+    private static boolean matches(byte[] payload, int start, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (payload[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesIgnoreCase(byte[] payload, int start, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if ((payload[start + i] | 0x20) != (expected[i] | 0x20)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
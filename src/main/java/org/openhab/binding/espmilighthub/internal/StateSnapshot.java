@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link StateSnapshot} saves the last state the hub sent for each globe to a small binary file, so the channels
+ * can show it as soon as openHAB starts instead of waiting for the broker to resend the retained states.
+ *
+ * File layout: magic, version and record count, then per globe the remote code, globe type, group, the fields present
+ * and each field of the {@link MilightState}.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public final class StateSnapshot {
+    private static final int MAGIC = 0x454D5353; // EMSS
+    private static final int VERSION = 1;
+
+    private StateSnapshot() {
+    }
+
+    /**
+     * Writes to a temporary file first and then renames it, so a crash never leaves half a snapshot behind.
+     */
+    public static void save(File snapshotFile, Iterable<GlobeChannels[]> remotes) throws IOException {
+        File folder = snapshotFile.getParentFile();
+        if (folder != null && !folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Could not create the folder " + folder);
+        }
+        List<GlobeKey> keys = new ArrayList<GlobeKey>();
+        List<MilightState> known = new ArrayList<MilightState>();
+        for (GlobeChannels[] groups : remotes) {
+            for (GlobeChannels globe : groups) {
+                if (globe == null) {
+                    continue;
+                }
+                MilightState state = new MilightState();
+                if (globe.copyLastKnown(state)) {
+                    keys.add(globe.getGlobeKey());
+                    known.add(state);
+                }
+            }
+        }
+        File temporary = new File(snapshotFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(known.size());
+            for (int i = 0; i < known.size(); i++) {
+                GlobeKey key = keys.get(i);
+                MilightState state = known.get(i);
+                out.writeUTF(key.getRemoteCode());
+                out.writeByte(key.getGlobeType().ordinal());
+                out.writeByte(key.getGroup());
+                out.writeByte(state.present);
+                out.writeByte(state.state);
+                out.writeShort(state.level);
+                out.writeShort(state.hue);
+                out.writeShort(state.saturation);
+                out.writeShort(state.colourTemp);
+                out.writeShort(state.mode);
+                out.writeByte(state.bulbMode);
+            }
+        }
+        if (!temporary.renameTo(snapshotFile)) {
+            snapshotFile.delete();
+            if (!temporary.renameTo(snapshotFile)) {
+                throw new IOException("Could not replace " + snapshotFile);
+            }
+        }
+    }
+
+    /**
+     * @return the saved state of each globe, empty if there is no snapshot yet.
+     */
+    public static Map<GlobeKey, MilightState> load(File snapshotFile) throws IOException {
+        Map<GlobeKey, MilightState> states = new HashMap<GlobeKey, MilightState>();
+        if (!snapshotFile.isFile()) {
+            return states;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(snapshotFile + " is not a state snapshot");
+            }
+            int count = in.readInt();
+            GlobeType[] types = GlobeType.values();
+            for (int i = 0; i < count; i++) {
+                String remoteCode = in.readUTF();
+                int type = in.readUnsignedByte();
+                int group = in.readUnsignedByte();
+                MilightState state = new MilightState();
+                state.present = in.readUnsignedByte();
+                state.state = in.readUnsignedByte();
+                state.level = in.readShort();
+                state.hue = in.readShort();
+                state.saturation = in.readShort();
+                state.colourTemp = in.readShort();
+                state.mode = in.readShort();
+                state.bulbMode = in.readUnsignedByte();
+                if (!remoteCode.isEmpty() && type < types.length && state.present != 0) {
+                    states.put(new GlobeKey(remoteCode, types[type], group), state);
+                }
+            }
+        }
+        return states;
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link TokenBucketPacer} limits how often packets are sent. One token is added every interval up to the burst
+ * size, and each send uses a token. After a quiet period the bucket is full so the first message goes straight out,
+ * while a steady stream is spaced by the interval. Only the sending thread uses it, apart from changing the interval.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class TokenBucketPacer {
+    private final int burst;
+    private volatile long intervalNanos;
+    // Time the bucket would next hold a token if nothing was sent, this moves forward by one interval per send.
+    private long theoreticalArrivalNanos;
+    private boolean started = false;
+
+    public TokenBucketPacer(long intervalNanos, int burst) {
+        this.intervalNanos = intervalNanos;
+        this.burst = Math.max(1, burst);
+    }
+
+    /**
+     * How long until a token is available, 0 if one can be used now.
+     */
+    public long nanosUntilAvailable(long nowNanos) {
+        if (!started) {
+            return 0;
+        }
+        long wait = theoreticalArrivalNanos - (burst - 1) * intervalNanos - nowNanos;
+        return wait > 0 ? wait : 0;
+    }
+
+    /**
+     * Uses a token, call only when {@link #nanosUntilAvailable(long)} returned 0.
+     */
+    public void consume(long nowNanos) {
+        if (!started || theoreticalArrivalNanos - nowNanos < 0) {
+            theoreticalArrivalNanos = nowNanos;
+            started = true;
+        }
+        theoreticalArrivalNanos += intervalNanos;
+    }
+
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    public void setIntervalNanos(long intervalNanos) {
+        this.intervalNanos = intervalNanos;
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link TopicCodec} turns milight/states/remote/type/group topics into a {@link GlobeKey} and makes the matching
+ * command topics. Topics are read in one pass without cutting them up, and the keys of recently seen topics are kept in
+ * a small cache as the hub only ever uses a handful of topics, so most messages find their key without making
+ * anything.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public final class TopicCodec {
+    public static final String STATES_PREFIX = "milight/states/";
+    public static final String COMMANDS_PREFIX = "milight/commands/";
+
+    // Must be a power of 2.
+    private static final int CACHE_SIZE = 64;
+    private static final CachedTopic[] CACHE = new CachedTopic[CACHE_SIZE];
+
+    private static final class CachedTopic {
+        final String topic;
+        final GlobeKey key;
+
+        CachedTopic(String topic, GlobeKey key) {
+            this.topic = topic;
+            this.key = key;
+        }
+    }
+
+    private TopicCodec() {
+    }
+
+    /**
+     * Reads a state topic such as milight/states/0x01/rgb_cct/4, groups can have more than one digit.
+     *
+     * @return null if it is not a state topic for a known globe type.
+     */
+    public static @Nullable GlobeKey parseStateTopic(String topic) {
+        int slot = topic.hashCode() & (CACHE_SIZE - 1);
+        // Entries are immutable and replaced whole, so a racing thread sees an old entry or a new one.
+        CachedTopic cached = CACHE[slot];
+        if (cached != null && cached.topic.equals(topic)) {
+            return cached.key;
+        }
+        GlobeKey key = parse(topic);
+        if (key != null) {
+            CACHE[slot] = new CachedTopic(topic, key);
+        }
+        return key;
+    }
+
+    private static @Nullable GlobeKey parse(String topic) {
+        if (!topic.startsWith(STATES_PREFIX)) {
+            return null;
+        }
+        int remoteStart = STATES_PREFIX.length();
+        int remoteEnd = topic.indexOf('/', remoteStart);
+        if (remoteEnd <= remoteStart) {
+            return null;
+        }
+        int typeEnd = topic.indexOf('/', remoteEnd + 1);
+        if (typeEnd < 0) {
+            return null;
+        }
+        GlobeType globeType = GlobeType.fromId(topic, remoteEnd + 1, typeEnd);
+        if (globeType == null) {
+            return null;
+        }
+        int group = parseGroup(topic, typeEnd + 1, topic.length());
+        if (group < 0) {
+            return null;
+        }
+        return new GlobeKey(topic.substring(remoteStart, remoteEnd).intern(), globeType, group);
+    }
+
+    /**
+     * @return the group, or -1 if the text is not a number.
+     */
+    private static int parseGroup(String text, int start, int end) {
+        if (start >= end || end - start > 4) {
+            return -1;
+        }
+        int group = 0;
+        for (int i = start; i < end; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            group = group * 10 + digit;
+        }
+        return group;
+    }
+
+    /**
+     * Works out the key from the globe's thing type and thing ID, the last character of the ID is the group, eg 0x014
+     * is group 4 of remote 0x01.
+     *
+     * @return null if the thing is not a globe.
+     */
+    public static @Nullable GlobeKey forThing(String thingTypeId, String thingId) {
+        GlobeType globeType = GlobeType.fromId(thingTypeId);
+        if (globeType == null || thingId.length() < 2) {
+            return null;
+        }
+        int group = parseGroup(thingId, thingId.length() - 1, thingId.length());
+        if (group < 0) {
+            return null;
+        }
+        return new GlobeKey(thingId.substring(0, thingId.length() - 1).intern(), globeType, group);
+    }
+
+    /**
+     * The filter that matches the states of every group of the key's remote, eg milight/states/0x01/rgb_cct/+.
+     */
+    public static String stateFilter(GlobeKey key) {
+        return STATES_PREFIX + key.getRemoteKey() + "/+";
+    }
+
+    public static String commandTopic(String remoteCode, GlobeType globeType, int group) {
+        return commandTopic(remoteCode, globeType.getId(), Integer.toString(group));
+    }
+
+    public static String commandTopic(String remoteCode, String globeType, String group) {
+        return COMMANDS_PREFIX + remoteCode + "/" + globeType + "/" + group;
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+import org.openhab.binding.espmilighthub.internal.CommandRingBuffer.OverflowPolicy;
+
+/**
+ * Tests for {@link AdaptivePacer}.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class AdaptivePacerTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final CommandSender sender = new CommandSender(
+            new CommandRingBuffer<OutgoingCommand>(4, OverflowPolicy.DROP_OLDEST), new CommandSender.Publisher() {
+                @Override
+                public boolean isConnected() {
+                    return false;
+                }
+
+                @Override
+                public boolean isFull() {
+                    return false;
+                }
+
+                @Override
+                public void publish(String topic, byte[] payload) {
+                }
+            }, 0, 0);
+
+    @Test
+    public void quickEchoesShortenTheGap() {
+        AdaptivePacer pacer = new AdaptivePacer(sender, 50 * MS, 10 * MS, 200 * MS);
+
+        pacer.roundTrip(5 * MS, 0);
+        pacer.roundTrip(6 * MS, MS);
+
+        assertEquals(48 * MS, pacer.getGapNanos());
+    }
+
+    @Test
+    public void slowEchoDoublesTheGapAndHoldsIt() {
+        AdaptivePacer pacer = new AdaptivePacer(sender, 50 * MS, 10 * MS, 200 * MS);
+        pacer.roundTrip(5 * MS, 0);
+
+        pacer.roundTrip(150 * MS, MS);
+        assertEquals(98 * MS, pacer.getGapNanos());
+
+        pacer.roundTrip(5 * MS, 2 * MS);
+        assertEquals(98 * MS, pacer.getGapNanos());
+
+        pacer.roundTrip(5 * MS, 2 * SECOND);
+        assertEquals(97 * MS, pacer.getGapNanos());
+    }
+
+    @Test
+    public void missedEchoDoublesTheGapOncePerHold() {
+        AdaptivePacer pacer = new AdaptivePacer(sender, 50 * MS, 10 * MS, 200 * MS);
+
+        pacer.missed(1, 0);
+        pacer.missed(3, MS);
+
+        assertEquals(100 * MS, pacer.getGapNanos());
+    }
+
+    @Test
+    public void gapStaysBetweenTheFloorAndTheCeiling() {
+        AdaptivePacer pacer = new AdaptivePacer(sender, 500 * MS, 10 * MS, 200 * MS);
+        assertEquals(200 * MS, pacer.getGapNanos());
+
+        pacer.missed(1, 0);
+        assertEquals(200 * MS, pacer.getGapNanos());
+
+        AdaptivePacer atFloor = new AdaptivePacer(sender, 10 * MS, 10 * MS, 200 * MS);
+        atFloor.roundTrip(5 * MS, 0);
+        assertEquals(10 * MS, atFloor.getGapNanos());
+    }
+
+    @Test
+    public void newBoundsKeepTheLearntGap() {
+        AdaptivePacer pacer = new AdaptivePacer(sender, 50 * MS, 10 * MS, 200 * MS);
+        pacer.roundTrip(5 * MS, 0);
+
+        pacer.setBounds(20 * MS, 100 * MS);
+        assertEquals(49 * MS, pacer.getGapNanos());
+
+        pacer.setBounds(60 * MS, 100 * MS);
+        assertEquals(60 * MS, pacer.getGapNanos());
+
+        pacer.setBounds(10 * MS, 30 * MS);
+        assertEquals(30 * MS, pacer.getGapNanos());
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.junit.Assert.*;
+import static org.openhab.binding.espmilighthub.internal.CommandCoalescer.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CommandCoalescer}.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class CommandCoalescerTest {
+    private static final String TOPIC = "milight/commands/0xEC59/rgb_cct/1";
+    private static final String OTHER_TOPIC = "milight/commands/0xEC59/rgb_cct/2";
+
+    private final CommandCoalescer coalescer = new CommandCoalescer();
+
+    private static String text(OutgoingCommand command) {
+        return new String(command.takePayload(), StandardCharsets.UTF_8);
+    }
+
+    private OutgoingCommand first(int state, int level, int hue, int saturation, int colourTemp) {
+        OutgoingCommand command = coalescer.coalesce(TOPIC, state, level, hue, saturation, colourTemp);
+        assertNotNull(command);
+        return command;
+    }
+
+    @Test
+    public void fieldsAreMergedIntoTheWaitingCommand() {
+        OutgoingCommand command = first(UNSET, 40, UNSET, UNSET, UNSET);
+
+        assertNull(coalescer.coalesce(TOPIC, UNSET, UNSET, UNSET, UNSET, 250));
+        assertNull(coalescer.coalesce(TOPIC, UNSET, 60, UNSET, UNSET, UNSET));
+
+        assertEquals("{\"level\":60,\"color_temp\":250}", text(command));
+        assertEquals(2, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    public void offWipesTheOtherFields() {
+        OutgoingCommand command = first(STATE_ON, 40, 120, 100, UNSET);
+
+        assertNull(coalescer.coalesce(TOPIC, STATE_OFF, UNSET, UNSET, UNSET, UNSET));
+
+        assertEquals(CommandPriority.SWITCH, command.getPriority());
+        assertEquals("{\"state\":\"OFF\"}", text(command));
+    }
+
+    @Test
+    public void levelAfterAWaitingOffTurnsTheGlobeBackOn() {
+        OutgoingCommand command = first(STATE_OFF, UNSET, UNSET, UNSET, UNSET);
+
+        assertNull(coalescer.coalesce(TOPIC, UNSET, 30, UNSET, UNSET, UNSET));
+
+        assertEquals("{\"state\":\"ON\",\"level\":30}", text(command));
+    }
+
+    @Test
+    public void colourAndColourTempReplaceEachOther() {
+        OutgoingCommand command = first(UNSET, UNSET, UNSET, UNSET, 200);
+
+        assertNull(coalescer.coalesce(TOPIC, UNSET, UNSET, 120, 90, UNSET));
+        assertEquals("{\"hue\":120,\"saturation\":90}", text(command));
+
+        OutgoingCommand next = first(UNSET, UNSET, 10, 20, UNSET);
+        assertNull(coalescer.coalesce(TOPIC, UNSET, UNSET, UNSET, UNSET, 300));
+        assertEquals("{\"color_temp\":300}", text(next));
+    }
+
+    @Test
+    public void priorityFollowsTheMergedFields() {
+        OutgoingCommand command = first(UNSET, 40, UNSET, UNSET, UNSET);
+        assertEquals(CommandPriority.LEVEL, command.getPriority());
+
+        assertNull(coalescer.coalesce(TOPIC, UNSET, UNSET, 120, UNSET, UNSET));
+        assertEquals(CommandPriority.COLOUR, command.getPriority());
+
+        assertNull(coalescer.coalesce(TOPIC, STATE_OFF, UNSET, UNSET, UNSET, UNSET));
+        assertEquals(CommandPriority.SWITCH, command.getPriority());
+    }
+
+    @Test
+    public void givenPriorityIsKeptThroughLaterMerges() {
+        OutgoingCommand command = coalescer.coalesce(TOPIC, STATE_ON, 70, UNSET, UNSET, UNSET,
+                CommandPriority.SWITCH);
+        assertNotNull(command);
+
+        assertNull(coalescer.coalesce(TOPIC, STATE_ON, 80, UNSET, UNSET, UNSET));
+
+        assertEquals(CommandPriority.SWITCH, command.getPriority());
+        assertEquals("{\"state\":\"ON\",\"level\":80}", text(command));
+    }
+
+    @Test
+    public void nothingIsMergedAcrossABarrier() {
+        first(UNSET, 40, UNSET, UNSET, UNSET);
+
+        coalescer.barrier(TOPIC);
+
+        assertNotNull(coalescer.coalesce(TOPIC, UNSET, 60, UNSET, UNSET, UNSET));
+    }
+
+    @Test
+    public void nothingIsMergedOnceTheCommandIsTaken() {
+        OutgoingCommand command = first(UNSET, 40, UNSET, UNSET, UNSET);
+        assertEquals("{\"level\":40}", text(command));
+
+        assertNotNull(coalescer.coalesce(TOPIC, UNSET, 60, UNSET, UNSET, UNSET));
+    }
+
+    @Test
+    public void topicsAreKeptApart() {
+        first(UNSET, 40, UNSET, UNSET, UNSET);
+
+        assertNotNull(coalescer.coalesce(OTHER_TOPIC, UNSET, 60, UNSET, UNSET, UNSET));
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.junit.Assert.*;
+import static org.openhab.binding.espmilighthub.internal.CommandCoalescer.UNSET;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CommandDebouncer}.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class CommandDebouncerTest {
+
+    private static final String TOPIC = "milight/commands/0x1/rgb_cct/1";
+    private static final long HOUR = TimeUnit.HOURS.toNanos(1);
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> forwarded = Collections.synchronizedList(new ArrayList<String>());
+    private final CommandDebouncer.Sink sink = new CommandDebouncer.Sink() {
+        @Override
+        public void forward(String topic, int state, int level, int hue, int saturation, int colourTemp) {
+            forwarded.add("level=" + level + " hue=" + hue + " ct=" + colourTemp);
+        }
+    };
+
+    @After
+    public void stopScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    private static String sent(int level, int hue, int colourTemp) {
+        return "level=" + level + " hue=" + hue + " ct=" + colourTemp;
+    }
+
+    @Test
+    public void firstChangeGoesStraightThroughAndTheRestAreHeld() {
+        CommandDebouncer debouncer = new CommandDebouncer(scheduler, sink, HOUR, HOUR);
+        debouncer.submit(TOPIC, UNSET, 10, UNSET, UNSET, UNSET);
+        debouncer.submit(TOPIC, UNSET, 20, UNSET, UNSET, UNSET);
+        debouncer.submit(TOPIC, UNSET, 30, UNSET, UNSET, UNSET);
+
+        assertEquals(Arrays.asList(sent(10, UNSET, UNSET)), forwarded);
+
+        debouncer.flush(TOPIC);
+
+        assertEquals(Arrays.asList(sent(10, UNSET, UNSET), sent(30, UNSET, UNSET)), forwarded);
+        assertEquals(1, debouncer.getDebouncedCount());
+    }
+
+    @Test
+    public void heldChangesAreMergedFieldByField() {
+        CommandDebouncer debouncer = new CommandDebouncer(scheduler, sink, HOUR, HOUR);
+        debouncer.submit(TOPIC, UNSET, 10, UNSET, UNSET, UNSET);
+        debouncer.submit(TOPIC, UNSET, UNSET, 120, 100, UNSET);
+        debouncer.submit(TOPIC, UNSET, 40, UNSET, UNSET, UNSET);
+        debouncer.submit(TOPIC, UNSET, UNSET, UNSET, UNSET, 200);
+
+        debouncer.flushAll();
+
+        // A colour temperature replaces the held colour, the level is kept.
+        assertEquals(Arrays.asList(sent(10, UNSET, UNSET), sent(40, UNSET, 200)), forwarded);
+    }
+
+    @Test
+    public void latestChangeIsForwardedOnceTheGlobeIsQuiet() throws InterruptedException {
+        CommandDebouncer debouncer = new CommandDebouncer(scheduler, sink, TimeUnit.MILLISECONDS.toNanos(20), HOUR);
+        debouncer.submit(TOPIC, UNSET, 10, UNSET, UNSET, UNSET);
+        debouncer.submit(TOPIC, UNSET, 20, UNSET, UNSET, UNSET);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (forwarded.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(Arrays.asList(sent(10, UNSET, UNSET), sent(20, UNSET, UNSET)), forwarded);
+    }
+
+    @Test
+    public void zeroWindowForwardsEveryChange() {
+        CommandDebouncer debouncer = new CommandDebouncer(scheduler, sink, 0, 0);
+        debouncer.submit(TOPIC, UNSET, 10, UNSET, UNSET, UNSET);
+        debouncer.submit(TOPIC, UNSET, 20, UNSET, UNSET, UNSET);
+
+        assertEquals(2, forwarded.size());
+        assertEquals(0, debouncer.getDebouncedCount());
+    }
+
+    @Test
+    public void clearDropsWhatIsHeld() {
+        CommandDebouncer debouncer = new CommandDebouncer(scheduler, sink, HOUR, HOUR);
+        debouncer.submit(TOPIC, UNSET, 10, UNSET, UNSET, UNSET);
+        debouncer.submit(TOPIC, UNSET, 20, UNSET, UNSET, UNSET);
+
+        debouncer.clear();
+        debouncer.flushAll();
+
+        assertEquals(Arrays.asList(sent(10, UNSET, UNSET)), forwarded);
+    }
+
+    @Test
+    public void newBurstStartsAfterAFlush() {
+        CommandDebouncer debouncer = new CommandDebouncer(scheduler, sink, HOUR, HOUR);
+        debouncer.submit(TOPIC, UNSET, 10, UNSET, UNSET, UNSET);
+        debouncer.flush(TOPIC);
+        debouncer.submit(TOPIC, UNSET, 20, UNSET, UNSET, UNSET);
+
+        assertEquals(Arrays.asList(sent(10, UNSET, UNSET), sent(20, UNSET, UNSET)), forwarded);
+    }
+}
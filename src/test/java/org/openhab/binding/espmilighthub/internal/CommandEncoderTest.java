@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.junit.Assert.*;
+import static org.openhab.binding.espmilighthub.internal.CommandCoalescer.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+import org.openhab.binding.espmilighthub.internal.CommandEncoder.HubCommand;
+
+/**
+ * Tests for {@link CommandEncoder}.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class CommandEncoderTest {
+
+    private static String text(byte[] payload) {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void stateFieldsAreWrittenInOrder() {
+        assertEquals("{\"state\":\"ON\",\"level\":100,\"hue\":0,\"saturation\":5,\"color_temp\":370}",
+                text(CommandEncoder.encodeState(STATE_ON, 100, 0, 5, 370)));
+    }
+
+    @Test
+    public void unsetFieldsAreLeftOut() {
+        assertEquals("{\"state\":\"OFF\"}", text(CommandEncoder.encodeState(STATE_OFF, UNSET, UNSET, UNSET, UNSET)));
+        assertEquals("{\"hue\":359}", text(CommandEncoder.encodeState(UNSET, UNSET, 359, UNSET, UNSET)));
+        assertEquals("{}", text(CommandEncoder.encodeState(UNSET, UNSET, UNSET, UNSET, UNSET)));
+    }
+
+    @Test
+    public void knownCommandsShareTheirPayload() {
+        assertEquals("{\"command\":\"night_mode\"}", text(CommandEncoder.encodeCommand(HubCommand.NIGHT_MODE)));
+        assertSame(CommandEncoder.encodeCommand(HubCommand.PAIR), CommandEncoder.encodeCommand("pair"));
+        assertSame(HubCommand.TOGGLE, HubCommand.fromId("toggle"));
+        assertNull(HubCommand.fromId("favourite_white"));
+    }
+
+    @Test
+    public void typedCommandsAreEscaped() {
+        assertEquals("{\"command\":\"say \\\"hi\\\"\"}", text(CommandEncoder.encodeCommand("say \"hi\"")));
+    }
+
+    @Test
+    public void modesAreQuoted() {
+        assertEquals("{\"mode\":\"7\"}", text(CommandEncoder.encodeMode(7)));
+        assertEquals("{\"mode\":\"next\"}", text(CommandEncoder.encodeMode("next")));
+    }
+}
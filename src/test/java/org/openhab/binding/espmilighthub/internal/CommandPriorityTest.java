@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.openhab.binding.espmilighthub.internal.CommandCoalescer.*;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CommandPriority}.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class CommandPriorityTest {
+
+    @Test
+    public void offIsSwitchWhateverElseIsSet() {
+        assertEquals(CommandPriority.SWITCH, CommandPriority.ofState(STATE_OFF, UNSET, UNSET, UNSET, UNSET));
+        assertEquals(CommandPriority.SWITCH, CommandPriority.ofState(STATE_OFF, 80, 120, 100, UNSET));
+    }
+
+    @Test
+    public void onByItselfIsSwitch() {
+        assertEquals(CommandPriority.SWITCH, CommandPriority.ofState(STATE_ON, UNSET, UNSET, UNSET, UNSET));
+    }
+
+    @Test
+    public void onWithALevelOrColourRanksByThem() {
+        assertEquals(CommandPriority.LEVEL, CommandPriority.ofState(STATE_ON, 80, UNSET, UNSET, UNSET));
+        assertEquals(CommandPriority.COLOUR, CommandPriority.ofState(STATE_ON, 80, 120, 100, UNSET));
+        assertEquals(CommandPriority.COLOUR, CommandPriority.ofState(STATE_ON, UNSET, UNSET, UNSET, 200));
+    }
+
+    @Test
+    public void levelOnlyIsLevel() {
+        assertEquals(CommandPriority.LEVEL, CommandPriority.ofState(UNSET, 50, UNSET, UNSET, UNSET));
+    }
+
+    @Test
+    public void mostUrgentIsServedFirst() {
+        assertEquals(CommandPriority.SWITCH, CommandPriority.mostUrgent(CommandPriority.LEVEL, CommandPriority.SWITCH));
+        assertEquals(CommandPriority.COLOUR,
+                CommandPriority.mostUrgent(CommandPriority.COLOUR, CommandPriority.EFFECT));
+    }
+
+    @Test
+    public void colourFieldsAreColour() {
+        assertEquals(CommandPriority.COLOUR, CommandPriority.ofState(UNSET, UNSET, 120, UNSET, UNSET));
+        assertEquals(CommandPriority.COLOUR, CommandPriority.ofState(UNSET, UNSET, UNSET, 40, UNSET));
+        assertEquals(CommandPriority.COLOUR, CommandPriority.ofState(UNSET, 50, UNSET, UNSET, 200));
+    }
+
+    @Test
+    public void hubCommandsUseTheirPriority() {
+        assertEquals(CommandPriority.SWITCH, CommandPriority.ofCommand("night_mode"));
+        assertEquals(CommandPriority.SWITCH, CommandPriority.ofCommand("toggle"));
+        assertEquals(CommandPriority.LEVEL, CommandPriority.ofCommand("level_up"));
+        assertEquals(CommandPriority.COLOUR, CommandPriority.ofCommand("set_white"));
+        assertEquals(CommandPriority.COLOUR, CommandPriority.ofCommand("temperature_down"));
+        assertEquals(CommandPriority.EFFECT, CommandPriority.ofCommand("next_mode"));
+        assertEquals(CommandPriority.EFFECT, CommandPriority.ofCommand("pair"));
+    }
+
+    @Test
+    public void typedOnAndOffAreSwitches() {
+        assertEquals(CommandPriority.SWITCH, CommandPriority.ofCommand("on"));
+        assertEquals(CommandPriority.SWITCH, CommandPriority.ofCommand("OFF"));
+        assertEquals(CommandPriority.EFFECT, CommandPriority.ofCommand("something_else"));
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+import org.openhab.binding.espmilighthub.internal.CommandRingBuffer.DropListener;
+import org.openhab.binding.espmilighthub.internal.CommandRingBuffer.OverflowPolicy;
+
+/**
+ * Tests for {@link CommandRingBuffer}.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class CommandRingBufferTest {
+
+    private final List<String> dropped = Collections.synchronizedList(new ArrayList<String>());
+    private final DropListener<String> listener = new DropListener<String>() {
+        @Override
+        public void dropped(String element) {
+            dropped.add(element);
+        }
+    };
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(8, new CommandRingBuffer<String>(5, OverflowPolicy.DROP_OLDEST).capacity());
+        assertEquals(2, new CommandRingBuffer<String>(1, OverflowPolicy.DROP_OLDEST).capacity());
+    }
+
+    @Test
+    public void elementsComeOutInOrder() {
+        CommandRingBuffer<String> buffer = new CommandRingBuffer<String>(4, OverflowPolicy.DROP_OLDEST);
+        for (int lap = 0; lap < 3; lap++) {
+            assertTrue(buffer.offer("a", listener));
+            assertTrue(buffer.offer("b", listener));
+            assertTrue(buffer.offer("c", listener));
+            assertEquals(3, buffer.size());
+            assertEquals("a", buffer.poll());
+            assertEquals("b", buffer.poll());
+            assertEquals("c", buffer.poll());
+            assertNull(buffer.poll());
+            assertTrue(buffer.isEmpty());
+        }
+        assertTrue(dropped.isEmpty());
+    }
+
+    @Test
+    public void dropOldestMakesRoomForTheNewest() {
+        CommandRingBuffer<String> buffer = new CommandRingBuffer<String>(2, OverflowPolicy.DROP_OLDEST);
+        buffer.offer("a", listener);
+        buffer.offer("b", listener);
+
+        assertTrue(buffer.offer("c", listener));
+
+        assertEquals(Collections.singletonList("a"), dropped);
+        assertEquals(1, buffer.getDroppedCount());
+        assertEquals("b", buffer.poll());
+        assertEquals("c", buffer.poll());
+    }
+
+    @Test
+    public void dropNewestRejectsTheOffer() {
+        CommandRingBuffer<String> buffer = new CommandRingBuffer<String>(2, OverflowPolicy.DROP_NEWEST);
+        buffer.offer("a", listener);
+        buffer.offer("b", listener);
+
+        assertFalse(buffer.offer("c", listener));
+
+        assertEquals(Collections.singletonList("c"), dropped);
+        assertEquals(1, buffer.getDroppedCount());
+        assertEquals("a", buffer.poll());
+        assertEquals("b", buffer.poll());
+    }
+
+    @Test
+    public void everyElementEvictedByContendingProducersIsReported() throws InterruptedException {
+        final CommandRingBuffer<String> buffer = new CommandRingBuffer<String>(2, OverflowPolicy.DROP_OLDEST);
+        final int perThread = 10000;
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            final String prefix = t + ":";
+            producers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        buffer.offer(prefix + i, listener);
+                    }
+                }
+            };
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        // Nothing is ever polled by a consumer, so whatever is not left in the queue must have been reported.
+        assertEquals(producers.length * perThread, dropped.size() + buffer.size());
+        assertEquals(dropped.size(), buffer.getDroppedCount());
+    }
+
+    @Test
+    public void elementsHeldOutsideCountAgainstTheCapacity() {
+        CommandRingBuffer<String> buffer = new CommandRingBuffer<String>(4, OverflowPolicy.DROP_OLDEST);
+        buffer.setHeldOutside(3);
+        buffer.offer("a", listener);
+
+        assertTrue(buffer.offer("b", listener));
+        assertEquals(Collections.singletonList("a"), dropped);
+
+        buffer.setHeldOutside(4);
+        assertFalse(buffer.offer("c", listener));
+        assertEquals(Arrays.asList("a", "b", "c"), dropped);
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void clearEmptiesTheBuffer() {
+        CommandRingBuffer<String> buffer = new CommandRingBuffer<String>(4, OverflowPolicy.DROP_OLDEST);
+        buffer.offer("a", listener);
+        buffer.offer("b", listener);
+
+        buffer.clear();
+
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.poll());
+    }
+}
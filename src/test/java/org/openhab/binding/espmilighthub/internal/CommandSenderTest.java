@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.After;
+import org.junit.Test;
+import org.openhab.binding.espmilighthub.internal.CommandRingBuffer.DropListener;
+import org.openhab.binding.espmilighthub.internal.CommandRingBuffer.OverflowPolicy;
+
+/**
+ * Tests for {@link CommandSender}.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class CommandSenderTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final List<String> published = Collections.synchronizedList(new ArrayList<String>());
+    private final List<OutgoingCommand> dropped = Collections.synchronizedList(new ArrayList<OutgoingCommand>());
+    private final DropListener<OutgoingCommand> listener = new DropListener<OutgoingCommand>() {
+        @Override
+        public void dropped(OutgoingCommand element) {
+            dropped.add(element);
+        }
+    };
+    private final CommandSender.Publisher publisher = new CommandSender.Publisher() {
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean isFull() {
+            return false;
+        }
+
+        @Override
+        public void publish(String topic, byte[] payload) {
+            published.add(topic + "=" + new String(payload, StandardCharsets.UTF_8));
+        }
+    };
+    private @Nullable CommandSender sender;
+    private @Nullable Thread thread;
+
+    @After
+    public void stopSender() throws InterruptedException {
+        CommandSender running = sender;
+        Thread runningThread = thread;
+        if (running != null && runningThread != null) {
+            running.stop();
+            runningThread.join(TIMEOUT_MILLIS);
+        }
+    }
+
+    private void start(CommandRingBuffer<OutgoingCommand> queue, long globalGapNanos) {
+        CommandSender started = new CommandSender(queue, publisher, globalGapNanos, 0);
+        Thread startedThread = new Thread(started);
+        sender = started;
+        thread = startedThread;
+        startedThread.start();
+    }
+
+    private static OutgoingCommand command(String topic, String payload, CommandPriority priority, long enqueued) {
+        return new OutgoingCommand(topic, payload.getBytes(StandardCharsets.UTF_8), priority, enqueued);
+    }
+
+    private void awaitPublished(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (published.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, published.size());
+    }
+
+    @Test
+    public void mostUrgentGlobeGoesFirst() throws InterruptedException {
+        CommandRingBuffer<OutgoingCommand> queue = new CommandRingBuffer<OutgoingCommand>(8,
+                OverflowPolicy.DROP_OLDEST);
+        long now = System.nanoTime();
+        queue.offer(command("a", "effect", CommandPriority.EFFECT, now), listener);
+        queue.offer(command("b", "colour", CommandPriority.COLOUR, now), listener);
+        queue.offer(command("c", "switch", CommandPriority.SWITCH, now), listener);
+        queue.offer(command("d", "level", CommandPriority.LEVEL, now), listener);
+
+        start(queue, 0);
+        awaitPublished(4);
+
+        assertEquals(Arrays.asList("c=switch", "d=level", "b=colour", "a=effect"), published);
+    }
+
+    @Test
+    public void commandsForAGlobeKeepTheirOrder() throws InterruptedException {
+        CommandRingBuffer<OutgoingCommand> queue = new CommandRingBuffer<OutgoingCommand>(8,
+                OverflowPolicy.DROP_OLDEST);
+        long now = System.nanoTime();
+        queue.offer(command("a", "effect", CommandPriority.EFFECT, now), listener);
+        queue.offer(command("a", "switch", CommandPriority.SWITCH, now), listener);
+        queue.offer(command("b", "colour", CommandPriority.COLOUR, now), listener);
+
+        start(queue, 0);
+        awaitPublished(3);
+
+        // The switch is stuck behind the effect for the same globe, so the colour for the other globe goes first.
+        assertEquals(Arrays.asList("b=colour", "a=effect", "a=switch"), published);
+    }
+
+    @Test
+    public void commandWaitingTooLongIsNotStarved() throws InterruptedException {
+        CommandRingBuffer<OutgoingCommand> queue = new CommandRingBuffer<OutgoingCommand>(8,
+                OverflowPolicy.DROP_OLDEST);
+        long now = System.nanoTime();
+        queue.offer(command("a", "effect", CommandPriority.EFFECT, now - TimeUnit.SECONDS.toNanos(2)), listener);
+        queue.offer(command("b", "switch", CommandPriority.SWITCH, now), listener);
+
+        start(queue, 0);
+        awaitPublished(2);
+
+        assertEquals(Arrays.asList("a=effect", "b=switch"), published);
+    }
+
+    @Test
+    public void waitingCommandsCountAgainstTheQueueCapacity() throws InterruptedException {
+        CommandRingBuffer<OutgoingCommand> queue = new CommandRingBuffer<OutgoingCommand>(4,
+                OverflowPolicy.DROP_NEWEST);
+        long now = System.nanoTime();
+        for (int i = 1; i <= 4; i++) {
+            queue.offer(command("a", "a" + i, CommandPriority.LEVEL, now), listener);
+        }
+
+        // The first command uses the only token, the other three wait in the sender for the next one.
+        start(queue, TimeUnit.HOURS.toNanos(1));
+        awaitPublished(1);
+        assertTrue(queue.isEmpty());
+
+        OutgoingCommand accepted = command("b", "b1", CommandPriority.LEVEL, now);
+        OutgoingCommand rejected = command("b", "b2", CommandPriority.LEVEL, now);
+        assertTrue(queue.offer(accepted, listener));
+        assertFalse(queue.offer(rejected, listener));
+
+        assertEquals(Collections.singletonList(rejected), dropped);
+    }
+}
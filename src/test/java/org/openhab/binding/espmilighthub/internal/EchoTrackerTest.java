@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+import org.openhab.binding.espmilighthub.internal.EchoTracker.GlobeEcho;
+
+/**
+ * Tests for {@link EchoTracker}.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class EchoTrackerTest {
+
+    private final EchoTracker tracker = new EchoTracker(1000);
+
+    private static GlobeKey key(String stateTopic) {
+        GlobeKey key = TopicCodec.parseStateTopic(stateTopic);
+        assertNotNull(key);
+        return key;
+    }
+
+    private GlobeEcho echo(GlobeKey key) {
+        GlobeEcho echo = tracker.get(key.getCommandTopic());
+        assertNotNull(echo);
+        return echo;
+    }
+
+    @Test
+    public void eachStateAnswersTheOldestCommand() {
+        GlobeKey key = key("milight/states/0x1/rgb_cct/1");
+        tracker.commandSent(key.getCommandTopic(), 100);
+        tracker.commandSent(key.getCommandTopic(), 200);
+
+        tracker.stateReceived(key, 400);
+        assertEquals(300, echo(key).getLastRoundTripNanos());
+        tracker.stateReceived(key, 500);
+        assertEquals(300, echo(key).getLastRoundTripNanos());
+        tracker.stateReceived(key, 600);
+
+        assertEquals(2, echo(key).getEchoedCount());
+        assertEquals(2, tracker.getRoundTrip().snapshotAndReset().getCount());
+        assertEquals(0, tracker.getMissedCount());
+    }
+
+    @Test
+    public void stateForAGroupAnswersACommandForGroupZero() {
+        GlobeKey all = key("milight/states/0x1/rgb_cct/0");
+        GlobeKey one = key("milight/states/0x1/rgb_cct/1");
+        tracker.commandSent(all.getCommandTopic(), 100);
+
+        tracker.stateReceived(one, 250);
+
+        assertEquals(1, echo(all).getEchoedCount());
+        assertEquals(150, echo(all).getLastRoundTripNanos());
+        assertNull(tracker.get(one.getCommandTopic()));
+    }
+
+    @Test
+    public void commandsWithoutAStateAreMissedAndFlagTheGlobeOnce() {
+        GlobeKey key = key("milight/states/0x1/rgb_cct/1");
+        tracker.commandSent(key.getCommandTopic(), 0);
+        tracker.commandSent(key.getCommandTopic(), 10);
+
+        assertTrue(tracker.expire(500).isEmpty());
+        List<GlobeEcho> flagged = tracker.expire(5000);
+        assertEquals(1, flagged.size());
+        assertSame(echo(key), flagged.get(0));
+        assertEquals(2, tracker.getMissedCount());
+        assertTrue(echo(key).isFlagged());
+
+        tracker.commandSent(key.getCommandTopic(), 6000);
+        assertTrue(tracker.expire(8000).isEmpty());
+        assertEquals(3, echo(key).getMissedCount());
+
+        tracker.commandSent(key.getCommandTopic(), 9000);
+        tracker.stateReceived(key, 9100);
+        assertFalse(echo(key).isFlagged());
+    }
+
+    @Test
+    public void tooManyWaitingCommandsCountTheOldestAsMissed() {
+        GlobeKey key = key("milight/states/0x1/rgb_cct/1");
+        for (int i = 0; i < 17; i++) {
+            tracker.commandSent(key.getCommandTopic(), i);
+        }
+
+        assertEquals(1, tracker.getMissedCount());
+        tracker.stateReceived(key, 100);
+        assertEquals(99, echo(key).getLastRoundTripNanos());
+    }
+
+    @Test
+    public void listenerHearsRoundTripsAndMisses() {
+        final List<String> heard = new ArrayList<String>();
+        tracker.setListener(new EchoTracker.Listener() {
+            @Override
+            public void roundTrip(long nanos, long now) {
+                heard.add("roundTrip " + nanos);
+            }
+
+            @Override
+            public void missed(int count, long now) {
+                heard.add("missed " + count);
+            }
+        });
+        GlobeKey key = key("milight/states/0x1/rgb_cct/1");
+        tracker.commandSent(key.getCommandTopic(), 0);
+        tracker.stateReceived(key, 40);
+        tracker.commandSent(key.getCommandTopic(), 100);
+        tracker.expire(2000);
+
+        assertEquals(2, heard.size());
+        assertEquals("roundTrip 40", heard.get(0));
+        assertEquals("missed 1", heard.get(1));
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+/**
+ * Tests for {@link GlobeStateStore}.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class GlobeStateStoreTest {
+    private final GlobeStateStore store = new GlobeStateStore();
+
+    private static GlobeKey key(String topic) {
+        GlobeKey key = TopicCodec.parseStateTopic(topic);
+        assertNotNull(key);
+        return key;
+    }
+
+    private static MilightState state(String json) {
+        MilightState state = new MilightState();
+        assertTrue(StatePayloadParser.parse(json.getBytes(StandardCharsets.UTF_8), state));
+        return state;
+    }
+
+    @Test
+    public void eachGlobeKeepsItsSlot() {
+        int first = store.slotFor(key("milight/states/0xEC59/rgb_cct/1"));
+        int second = store.slotFor(key("milight/states/0xEC59/rgb_cct/2"));
+        int otherType = store.slotFor(key("milight/states/0xEC59/cct/1"));
+        int unusualRemote = store.slotFor(key("milight/states/remote1/rgb_cct/1"));
+
+        assertEquals(first, store.slotFor(key("milight/states/0xEC59/rgb_cct/1")));
+        assertEquals(unusualRemote, store.slotFor(key("milight/states/remote1/rgb_cct/1")));
+        assertEquals(4, store.size());
+        assertFalse(first == second || first == otherType || second == otherType || unusualRemote == first);
+    }
+
+    @Test
+    public void slotsSurviveGrowing() {
+        int first = store.slotFor(key("milight/states/0x0/rgbw/0"));
+        for (int remote = 1; remote < 300; remote++) {
+            store.slotFor(key("milight/states/0x" + Integer.toHexString(remote) + "/rgbw/1"));
+        }
+
+        assertEquals(first, store.slotFor(key("milight/states/0x0/rgbw/0")));
+        assertEquals(300, store.size());
+    }
+
+    @Test
+    public void mergeKeepsFieldsTheNewStateLacks() {
+        int slot = store.slotFor(key("milight/states/0xEC59/rgb_cct/1"));
+        assertFalse(store.isKnown(slot));
+
+        store.merge(slot, state("{\"state\":\"ON\",\"level\":40,\"bulb_mode\":\"white\"}"));
+        store.merge(slot, state("{\"color_temp\":200}"));
+
+        MilightState copy = new MilightState();
+        assertTrue(store.copy(slot, copy));
+        assertEquals(40, copy.getLevel());
+        assertEquals(200, copy.getColourTemp());
+        assertFalse(copy.hasHue());
+        assertEquals(MilightState.BULB_MODE_WHITE, store.getBulbMode(slot));
+    }
+
+    @Test
+    public void savedLevelFollowsTheLevelWhileOn() {
+        int slot = store.slotFor(key("milight/states/0xEC59/rgb_cct/1"));
+        assertEquals(GlobeStateStore.DEFAULT_SAVED_LEVEL, store.getSavedLevel(slot));
+
+        store.merge(slot, state("{\"state\":\"ON\",\"level\":30}"));
+        assertEquals(30, store.getSavedLevel(slot));
+
+        store.merge(slot, state("{\"state\":\"OFF\",\"level\":0}"));
+        assertEquals(30, store.getSavedLevel(slot));
+
+        store.setSavedLevel(slot, 150);
+        assertEquals(100, store.getSavedLevel(slot));
+    }
+
+    @Test
+    public void bulbModeTextIsParsed() {
+        assertEquals(MilightState.BULB_MODE_NIGHT, GlobeStateStore.parseBulbMode("night"));
+        assertEquals(MilightState.BULB_MODE_UNKNOWN, GlobeStateStore.parseBulbMode("disco"));
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.junit.Assert.*;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+import org.openhab.binding.espmilighthub.internal.InFlightWindow.Delivery;
+
+/**
+ * Tests for {@link InFlightWindow}.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class InFlightWindowTest {
+
+    @Test
+    public void windowIsFullOnceEveryPlaceIsTaken() {
+        InFlightWindow window = new InFlightWindow(2);
+        Delivery first = window.open("a");
+        assertFalse(window.isFull());
+        window.open("b");
+        assertTrue(window.isFull());
+
+        first.complete(true);
+
+        assertFalse(window.isFull());
+        assertEquals(1, window.getInFlight());
+        assertEquals("a", first.getTopic());
+    }
+
+    @Test
+    public void openingIsNeverRefused() {
+        InFlightWindow window = new InFlightWindow(1);
+        window.open("a");
+        window.open("b");
+
+        assertEquals(2, window.getInFlight());
+        assertTrue(window.isFull());
+    }
+
+    @Test
+    public void eachDeliveryIsOnlyCountedOnce() {
+        InFlightWindow window = new InFlightWindow(4);
+        Delivery delivery = window.open("a");
+
+        assertTrue(delivery.complete(true));
+        assertFalse(delivery.complete(false));
+        assertFalse(delivery.complete(true));
+
+        assertEquals(0, window.getInFlight());
+        assertEquals(1, window.getDeliveredCount());
+        assertEquals(0, window.getFailedCount());
+    }
+
+    @Test
+    public void failedDeliveryFreesItsPlace() {
+        InFlightWindow window = new InFlightWindow(1);
+        Delivery delivery = window.open("a");
+
+        delivery.complete(false);
+
+        assertFalse(window.isFull());
+        assertEquals(1, window.getFailedCount());
+    }
+
+    @Test
+    public void sizeIsAtLeastOne() {
+        assertEquals(1, new InFlightWindow(0).getSize());
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+/**
+ * Tests for {@link IncomingStateDispatcher}.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class IncomingStateDispatcherTest {
+
+    private static final String GROUP_0 = "milight/states/0x1/rgb_cct/0";
+    private static final String GROUP_1 = "milight/states/0x1/rgb_cct/1";
+    private static final String GROUP_2 = "milight/states/0x1/rgb_cct/2";
+
+    /**
+     * Holds the tasks until the test runs them, so states pile up in the queue as they would behind a busy worker.
+     */
+    private static class HeldExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private final List<String> processed = new ArrayList<String>();
+    private final IncomingStateDispatcher.Processor processor = new IncomingStateDispatcher.Processor() {
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void process(IncomingState state) {
+            processed.add(state.getTopic() + "=" + new String(state.getPayload(), StandardCharsets.UTF_8));
+        }
+    };
+    private final HeldExecutor executor = new HeldExecutor();
+    private final IncomingStateDispatcher dispatcher = new IncomingStateDispatcher(new Executor[] { executor },
+            processor, 16, 64);
+
+    private void submit(String topic, String payload) {
+        dispatcher.submit(new IncomingState(topic, payload.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void newerStateReplacesTheWaitingOne() {
+        submit(GROUP_1, "a");
+        submit(GROUP_1, "b");
+
+        executor.runAll();
+
+        assertEquals(Arrays.asList(GROUP_1 + "=b"), processed);
+        assertEquals(1, dispatcher.getCollapsedCount());
+    }
+
+    @Test
+    public void alternatingGroupsCollapseIndependently() {
+        submit(GROUP_1, "a");
+        submit(GROUP_2, "a");
+        submit(GROUP_1, "b");
+        submit(GROUP_2, "b");
+
+        assertEquals(2, dispatcher.size());
+        executor.runAll();
+
+        assertEquals(Arrays.asList(GROUP_1 + "=b", GROUP_2 + "=b"), processed);
+        assertEquals(2, dispatcher.getCollapsedCount());
+    }
+
+    @Test
+    public void singleGroupIsNotMovedAheadOfALaterGroupZero() {
+        submit(GROUP_1, "a");
+        submit(GROUP_0, "x");
+        submit(GROUP_1, "b");
+
+        executor.runAll();
+
+        assertEquals(Arrays.asList(GROUP_1 + "=a", GROUP_0 + "=x", GROUP_1 + "=b"), processed);
+        assertEquals(0, dispatcher.getCollapsedCount());
+    }
+
+    @Test
+    public void groupZeroIsNotMovedAheadOfALaterSingleGroup() {
+        submit(GROUP_0, "x");
+        submit(GROUP_1, "a");
+        submit(GROUP_0, "y");
+
+        executor.runAll();
+
+        assertEquals(Arrays.asList(GROUP_0 + "=x", GROUP_1 + "=a", GROUP_0 + "=y"), processed);
+    }
+
+    @Test
+    public void otherRemotesDoNotKeepStatesApart() {
+        submit(GROUP_1, "a");
+        submit("milight/states/0x2/rgb_cct/0", "x");
+        submit(GROUP_1, "b");
+
+        executor.runAll();
+
+        assertEquals(Arrays.asList(GROUP_1 + "=b", "milight/states/0x2/rgb_cct/0=x"), processed);
+    }
+
+    @Test
+    public void unknownTopicsAreNeverCollapsed() {
+        submit("milight/states/0x1/lamp/1", "a");
+        submit("milight/states/0x1/lamp/1", "b");
+
+        executor.runAll();
+
+        assertEquals(2, processed.size());
+        assertEquals(0, dispatcher.getCollapsedCount());
+    }
+
+    @Test
+    public void takenStateIsNotReplaced() {
+        submit(GROUP_1, "a");
+        executor.runAll();
+        submit(GROUP_1, "b");
+        executor.runAll();
+
+        assertEquals(Arrays.asList(GROUP_1 + "=a", GROUP_1 + "=b"), processed);
+    }
+
+    @Test
+    public void everyStateOfARemoteGoesToTheSameWorker() {
+        HeldExecutor first = new HeldExecutor();
+        HeldExecutor second = new HeldExecutor();
+        IncomingStateDispatcher sharded = new IncomingStateDispatcher(new Executor[] { first, second }, processor, 16,
+                64);
+        sharded.submit(new IncomingState(GROUP_1, new byte[0]));
+        HeldExecutor owner = first.tasks.isEmpty() ? second : first;
+        HeldExecutor other = owner == first ? second : first;
+
+        sharded.submit(new IncomingState(GROUP_0, new byte[0]));
+        sharded.submit(new IncomingState(GROUP_2, new byte[0]));
+        final List<String> ran = new ArrayList<String>();
+        GlobeKey key = TopicCodec.parseStateTopic(GROUP_2);
+        assertNotNull(key);
+        sharded.execute(key, new Runnable() {
+            @Override
+            public void run() {
+                ran.add("task");
+            }
+        });
+
+        assertTrue(other.tasks.isEmpty());
+        owner.runAll();
+        assertEquals(Arrays.asList(GROUP_1 + "=", GROUP_0 + "=", GROUP_2 + "="), processed);
+        assertEquals(1, ran.size());
+    }
+
+    @Test
+    public void remotesAreSplitBetweenTheWorkers() {
+        HeldExecutor first = new HeldExecutor();
+        HeldExecutor second = new HeldExecutor();
+        IncomingStateDispatcher sharded = new IncomingStateDispatcher(new Executor[] { first, second }, processor, 16,
+                64);
+
+        // The two remote keys differ in one character, so their hashes differ by an odd number.
+        sharded.submit(new IncomingState("milight/states/0x1/rgb_cct/1", new byte[0]));
+        sharded.submit(new IncomingState("milight/states/0x2/rgb_cct/1", new byte[0]));
+
+        assertEquals(1, first.tasks.size());
+        assertEquals(1, second.tasks.size());
+        assertEquals(2, sharded.size());
+        first.runAll();
+        second.runAll();
+        assertEquals(2, processed.size());
+        assertEquals(0, sharded.size());
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.junit.Assert.*;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+/**
+ * Tests for {@link LatencyHistogram}.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptySnapshotReadsZero() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshotAndReset();
+
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 0; value < 8; value++) {
+            histogram.record(value);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+
+        assertEquals(8, snapshot.getCount());
+        assertEquals(3, snapshot.getValueAtPercentile(50));
+        assertEquals(7, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void percentilesAreWithinTheBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000000L);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+
+        assertWithin(50000000L, snapshot.getValueAtPercentile(50));
+        assertWithin(99000000L, snapshot.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void snapshotResetsTheCounts() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.record(-5);
+
+        assertEquals(2, histogram.snapshotAndReset().getCount());
+        assertEquals(0, histogram.snapshotAndReset().getCount());
+    }
+
+    @Test
+    public void bucketsRoundTrip() {
+        for (long value : new long[] { 0, 7, 8, 15, 1000, 123456789L, Long.MAX_VALUE / 2 }) {
+            assertEquals(LatencyHistogram.indexOf(value),
+                    LatencyHistogram.indexOf(LatencyHistogram.valueOf(LatencyHistogram.indexOf(value))));
+        }
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        // 3 sub bucket bits keep every value within 1/8 of the true one.
+        assertTrue("expected about " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / 8);
+    }
+}
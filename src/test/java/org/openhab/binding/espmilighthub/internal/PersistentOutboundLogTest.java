@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.junit.Assert.*;
+import static org.openhab.binding.espmilighthub.internal.CommandCoalescer.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.binding.espmilighthub.internal.CommandEncoder.HubCommand;
+
+/**
+ * Tests for {@link PersistentOutboundLog}.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class PersistentOutboundLogTest {
+    private static final String TOPIC = "milight/commands/0xEC59/rgb_cct/1";
+    private static final String OTHER_TOPIC = "milight/commands/0xEC59/rgb_cct/2";
+    private static final long TTL = 60000;
+
+    private @Nullable File logFile;
+    private @Nullable PersistentOutboundLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        File file = File.createTempFile("espmilighthub", ".queue");
+        logFile = file;
+        log = new PersistentOutboundLog(file, 4096);
+    }
+
+    @After
+    public void tearDown() {
+        PersistentOutboundLog current = log;
+        if (current != null) {
+            current.close();
+        }
+        File file = logFile;
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    private PersistentOutboundLog log() {
+        PersistentOutboundLog current = log;
+        assertNotNull(current);
+        return current;
+    }
+
+    private void appendState(String topic, int state, int level, int hue, int saturation, int colourTemp,
+            long millis) {
+        assertTrue(log().append(topic, CommandEncoder.encodeState(state, level, hue, saturation, colourTemp),
+                CommandPriority.ofState(state, level, hue, saturation, colourTemp), true, millis));
+    }
+
+    private void appendCommand(String topic, HubCommand command, long millis) {
+        assertTrue(log().append(topic, CommandEncoder.encodeCommand(command), command.getPriority(), false, millis));
+    }
+
+    private static String text(PersistentOutboundLog.Entry entry) {
+        return new String(entry.getPayload(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void levelThenColourTempWhileOfflineAreBothReplayed() {
+        appendState(TOPIC, UNSET, 40, UNSET, UNSET, UNSET, 1000);
+        appendState(TOPIC, UNSET, UNSET, UNSET, UNSET, 250, 1010);
+
+        List<PersistentOutboundLog.Entry> entries = log().drain(2000, TTL);
+
+        assertEquals(1, entries.size());
+        assertEquals("{\"level\":40,\"color_temp\":250}", text(entries.get(0)));
+        // Served as urgently as the most urgent of the two.
+        assertEquals(CommandPriority.LEVEL, entries.get(0).getPriority());
+        assertEquals(1010, entries.get(0).getQueuedMillis());
+        assertTrue(log().isEmpty());
+    }
+
+    @Test
+    public void offWipesEarlierFields() {
+        appendState(TOPIC, STATE_ON, 40, 120, 100, UNSET, 1000);
+        appendState(TOPIC, STATE_OFF, UNSET, UNSET, UNSET, UNSET, 1010);
+
+        List<PersistentOutboundLog.Entry> entries = log().drain(2000, TTL);
+
+        assertEquals(1, entries.size());
+        assertEquals("{\"state\":\"OFF\"}", text(entries.get(0)));
+        assertEquals(CommandPriority.SWITCH, entries.get(0).getPriority());
+    }
+
+    @Test
+    public void commandsAreKeptInOrderAndNotMergedAcross() {
+        appendState(TOPIC, STATE_ON, 40, UNSET, UNSET, UNSET, 1000);
+        appendCommand(TOPIC, HubCommand.NIGHT_MODE, 1010);
+        appendState(TOPIC, UNSET, 60, UNSET, UNSET, UNSET, 1020);
+        appendState(OTHER_TOPIC, STATE_OFF, UNSET, UNSET, UNSET, UNSET, 1030);
+        appendState(TOPIC, UNSET, 80, UNSET, UNSET, UNSET, 1040);
+
+        List<PersistentOutboundLog.Entry> entries = log().drain(2000, TTL);
+
+        assertEquals(4, entries.size());
+        assertEquals("{\"state\":\"ON\",\"level\":40}", text(entries.get(0)));
+        assertEquals("{\"command\":\"night_mode\"}", text(entries.get(1)));
+        assertEquals(CommandPriority.SWITCH, entries.get(1).getPriority());
+        assertFalse(entries.get(1).isStateChange());
+        assertEquals(TOPIC, entries.get(2).getTopic());
+        assertEquals("{\"level\":80}", text(entries.get(2)));
+        assertEquals(OTHER_TOPIC, entries.get(3).getTopic());
+    }
+
+    @Test
+    public void powerFailPreambleIsNotMergedWithTheOff() {
+        assertTrue(log().append(TOPIC, CommandEncoder.ON_AT_LEVEL_0, CommandPriority.SWITCH, false, 1000));
+        appendState(TOPIC, STATE_OFF, UNSET, UNSET, UNSET, UNSET, 1010);
+
+        List<PersistentOutboundLog.Entry> entries = log().drain(2000, TTL);
+
+        assertEquals(2, entries.size());
+        assertEquals("{\"state\":\"ON\",\"level\":0}", text(entries.get(0)));
+        assertEquals("{\"state\":\"OFF\"}", text(entries.get(1)));
+    }
+
+    @Test
+    public void expiredEntriesAreDropped() {
+        appendCommand(TOPIC, HubCommand.PAIR, 1000);
+        appendState(OTHER_TOPIC, STATE_ON, UNSET, UNSET, UNSET, UNSET, 100000);
+
+        List<PersistentOutboundLog.Entry> entries = log().drain(100500, TTL);
+
+        assertEquals(1, entries.size());
+        assertEquals(OTHER_TOPIC, entries.get(0).getTopic());
+    }
+
+    @Test
+    public void commandsSurviveReopening() throws IOException {
+        appendState(TOPIC, UNSET, 40, UNSET, UNSET, UNSET, 1000);
+        log().close();
+        File file = logFile;
+        assertNotNull(file);
+        log = new PersistentOutboundLog(file, 4096);
+
+        List<PersistentOutboundLog.Entry> entries = log().drain(2000, TTL);
+
+        assertEquals(1, entries.size());
+        assertEquals("{\"level\":40}", text(entries.get(0)));
+    }
+
+    @Test
+    public void compactingMergesStatesWhenFull() {
+        for (int level = 0; level < 200; level++) {
+            appendState(TOPIC, UNSET, level % 101, UNSET, UNSET, UNSET, 1000 + level);
+        }
+
+        List<PersistentOutboundLog.Entry> entries = log().drain(2000, TTL);
+
+        assertEquals(1, entries.size());
+        assertEquals("{\"level\":" + (199 % 101) + "}", text(entries.get(0)));
+    }
+}
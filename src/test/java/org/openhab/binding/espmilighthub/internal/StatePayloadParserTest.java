@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+/**
+ * Tests for {@link StatePayloadParser}.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class StatePayloadParserTest {
+    private final MilightState state = new MilightState();
+
+    private boolean parse(String json) {
+        return StatePayloadParser.parse(json.getBytes(StandardCharsets.UTF_8), state);
+    }
+
+    @Test
+    public void readsEveryField() {
+        assertTrue(parse("{\"state\":\"ON\",\"level\":42,\"hue\":200,\"saturation\":80,\"color_temp\":153,"
+                + "\"mode\":3,\"bulb_mode\":\"color\"}"));
+
+        assertEquals(MilightState.STATE_ON, state.getState());
+        assertEquals(42, state.getLevel());
+        assertEquals(200, state.getHue());
+        assertEquals(80, state.getSaturation());
+        assertEquals(153, state.getColourTemp());
+        assertEquals(3, state.getMode());
+        assertEquals(MilightState.BULB_MODE_COLOR, state.getBulbMode());
+    }
+
+    @Test
+    public void missingFieldsAreNotPresent() {
+        assertTrue(parse("{ \"state\" : \"off\" }"));
+
+        assertTrue(state.hasState());
+        assertEquals(MilightState.STATE_OFF, state.getState());
+        assertFalse(state.hasLevel());
+        assertFalse(state.hasHue());
+        assertFalse(state.hasColourTemp());
+    }
+
+    @Test
+    public void skipsUnknownFieldsAndNestedValues() {
+        assertTrue(parse("{\"device\":{\"id\":[1,2]},\"on\":true,\"level\":10.6,\"mode\":\"5\"}"));
+
+        assertEquals(11, state.getLevel());
+        assertEquals(5, state.getMode());
+        assertFalse(state.hasState());
+    }
+
+    @Test
+    public void fieldsFromTheLastMessageAreCleared() {
+        assertTrue(parse("{\"level\":10}"));
+        assertTrue(parse("{\"hue\":20}"));
+
+        assertFalse(state.hasLevel());
+        assertEquals(20, state.getHue());
+    }
+
+    @Test
+    public void rejectsWhatIsNotAnObject() {
+        assertFalse(parse("ON"));
+        assertFalse(parse("{\"level\":"));
+        assertFalse(parse(""));
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.smarthome.core.thing.ThingUID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link StateSnapshot}.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class StateSnapshotTest {
+
+    private final GlobeStateStore store = new GlobeStateStore();
+    private @Nullable File snapshotFile;
+
+    @Before
+    public void setUp() throws IOException {
+        File file = File.createTempFile("espmilighthub", ".states");
+        file.delete();
+        snapshotFile = file;
+    }
+
+    @After
+    public void tearDown() {
+        File file = snapshotFile;
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    private File file() {
+        File file = snapshotFile;
+        assertNotNull(file);
+        return file;
+    }
+
+    private GlobeChannels globe(String stateTopic, @Nullable String json) {
+        GlobeKey key = TopicCodec.parseStateTopic(stateTopic);
+        assertNotNull(key);
+        GlobeChannels globe = new GlobeChannels(new ThingUID("espmilighthub", key.getGlobeType().getId(),
+                key.getThingId()), key, store);
+        if (json != null) {
+            globe.rememberState(parsed(json));
+        }
+        return globe;
+    }
+
+    @Test
+    public void savedStatesAreLoadedBack() throws IOException {
+        GlobeChannels colour = globe("milight/states/0xEC59/rgb_cct/1",
+                "{\"state\":\"ON\",\"level\":42,\"hue\":200,\"saturation\":80,\"bulb_mode\":\"color\"}");
+        GlobeChannels white = globe("milight/states/0xEC59/rgb_cct/2", "{\"state\":\"OFF\",\"color_temp\":153}");
+        GlobeChannels unknown = globe("milight/states/0xEC59/rgb_cct/3", null);
+
+        StateSnapshot.save(file(), Collections.singletonList(new GlobeChannels[] { colour, white, unknown }));
+        Map<GlobeKey, MilightState> loaded = StateSnapshot.load(file());
+
+        assertEquals(2, loaded.size());
+        MilightState first = loaded.get(colour.getGlobeKey());
+        assertNotNull(first);
+        assertEquals(MilightState.STATE_ON, first.getState());
+        assertEquals(42, first.getLevel());
+        assertEquals(200, first.getHue());
+        assertEquals(80, first.getSaturation());
+        assertEquals(MilightState.BULB_MODE_COLOR, first.getBulbMode());
+        assertFalse(first.hasColourTemp());
+        MilightState second = loaded.get(white.getGlobeKey());
+        assertNotNull(second);
+        assertEquals(MilightState.STATE_OFF, second.getState());
+        assertEquals(153, second.getColourTemp());
+        assertFalse(second.hasLevel());
+        assertFalse(loaded.containsKey(unknown.getGlobeKey()));
+    }
+
+    @Test
+    public void missingSnapshotLoadsNothing() throws IOException {
+        assertTrue(StateSnapshot.load(file()).isEmpty());
+    }
+
+    @Test
+    public void saveReplacesTheLastSnapshot() throws IOException {
+        GlobeChannels globe = globe("milight/states/0x1/fut089/5", "{\"level\":10}");
+        StateSnapshot.save(file(), Collections.singletonList(new GlobeChannels[] { globe }));
+        globe.rememberState(parsed("{\"level\":90}"));
+
+        StateSnapshot.save(file(), Collections.singletonList(new GlobeChannels[] { globe }));
+
+        MilightState loaded = StateSnapshot.load(file()).get(globe.getGlobeKey());
+        assertNotNull(loaded);
+        assertEquals(90, loaded.getLevel());
+        assertFalse(new File(file().getPath() + ".tmp").exists());
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file())) {
+            out.write("not a snapshot".getBytes(StandardCharsets.UTF_8));
+        }
+
+        StateSnapshot.load(file());
+    }
+
+    private static MilightState parsed(String json) {
+        MilightState state = new MilightState();
+        assertTrue(StatePayloadParser.parse(json.getBytes(StandardCharsets.UTF_8), state));
+        return state;
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.espmilighthub.internal;
+
+import static org.junit.Assert.*;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+/**
+ * Tests for {@link TopicCodec}.
+ *
+ * @author Contributors to the openHAB project - Initial contribution
+ */
+@NonNullByDefault
+public class TopicCodecTest {
+
+    @Test
+    public void readsAStateTopic() {
+        GlobeKey key = TopicCodec.parseStateTopic("milight/states/0xEC59/rgb_cct/4");
+
+        assertNotNull(key);
+        assertEquals("0xEC59", key.getRemoteCode());
+        assertEquals(GlobeType.RGB_CCT, key.getGlobeType());
+        assertEquals(4, key.getGroup());
+        assertEquals("0xEC59/rgb_cct", key.getRemoteKey());
+        assertEquals("milight/commands/0xEC59/rgb_cct/4", key.getCommandTopic());
+        assertEquals("0xEC594", key.getThingId());
+    }
+
+    @Test
+    public void cachedTopicsGiveTheSameKey() {
+        GlobeKey first = TopicCodec.parseStateTopic("milight/states/0x1/fut089/12");
+        GlobeKey second = TopicCodec.parseStateTopic("milight/states/0x1/fut089/12");
+
+        assertNotNull(first);
+        assertEquals(12, first.getGroup());
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void rejectsOtherTopics() {
+        assertNull(TopicCodec.parseStateTopic("milight/commands/0xEC59/rgb_cct/4"));
+        assertNull(TopicCodec.parseStateTopic("milight/states/0xEC59/lamp/4"));
+        assertNull(TopicCodec.parseStateTopic("milight/states/0xEC59/rgb_cct/x"));
+        assertNull(TopicCodec.parseStateTopic("milight/states/0xEC59/rgb_cct"));
+        assertNull(TopicCodec.parseStateTopic("milight/states//rgb_cct/1"));
+    }
+
+    @Test
+    public void keyFromAThingMatchesTheStateTopic() {
+        GlobeKey fromThing = TopicCodec.forThing("rgb_cct", "0xEC594");
+
+        assertEquals(TopicCodec.parseStateTopic("milight/states/0xEC59/rgb_cct/4"), fromThing);
+        assertNull(TopicCodec.forThing("bridge", "0xEC594"));
+        assertNull(TopicCodec.forThing("rgb_cct", "0xEC59x"));
+    }
+
+    @Test
+    public void stateFilterCoversEveryGroupOfTheRemote() {
+        GlobeKey key = TopicCodec.forThing("cct", "0x0011");
+
+        assertNotNull(key);
+        assertEquals("milight/states/0x001/cct/+", TopicCodec.stateFilter(key));
+    }
+}